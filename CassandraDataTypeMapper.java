@@ -1,11 +1,21 @@
 import org.apache.commons.lang.WordUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class will read all schema file from "resources/schema" and generate JPA class.
@@ -18,89 +28,223 @@ public class CassandraDataTypeMapper {
     @Autowired
     private JPACodeGenerator codeGenerator;
 
+    /**
+     * Number of column families generated at the same time. 1 (the default) generates them
+     * one after another on the calling thread.
+     */
+    private int parallelism = 1;
+
+    // records per column family how long parsing and rendering took, when set
+    private GenerationMetrics metrics;
+
+    // class name to column family name of the current run, to report compile errors by
+    private final Map<String, String> columnFamilies = new ConcurrentHashMap<String, String>();
+
     public void generate(File schemaDir) throws JPAGenerationException {
 
         if (!schemaDir.isDirectory()) {
             throw new JPAGenerationException();
         }
 
+        // an empty directory is still a run: the output of the column families whose schema files
+        // were removed is removed with them
         File[] schemaFiles = schemaDir.listFiles();
-        if (schemaFiles == null || schemaFiles.length == 0)
-            return;
+        if (schemaFiles == null)
+            throw new JPAGenerationException("failed to list the schema files in " + schemaDir);
 
-        for (File schemaFile : schemaFiles) {
-            try {
-                Map<String, String> map = mapDataTypes(schemaFile);
-                String classNameRaw = map.remove(CLASSNAME);
-                String [] tokens = classNameRaw.split("_");
+        // listFiles() order is platform dependent, sort so that runs are repeatable
+        Arrays.sort(schemaFiles);
 
-                StringBuilder sb = new StringBuilder();
-                for(String token: tokens) {
-                    sb.append(WordUtils.capitalize(token.toLowerCase()));
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(schemaFiles.length);
+        for (final File schemaFile : schemaFiles) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    generateSchemaFile(schemaFile);
+                    return null;
                 }
-                codeGenerator.generateCode(map, sb.toString());
-            } catch (Exception ex) {
-                throw new JPAGenerationException();
-            }
+            });
         }
+        run(tasks);
+
+    }
 
+    /**
+     * Generates classes straight from column family descriptions, skipping the schema file
+     * round-trip.
+     */
+    public void generate(List<ColumnFamilySchema> schemas) throws JPAGenerationException {
 
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(schemas.size());
+        for (final ColumnFamilySchema schema : schemas) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    generateSchema(schema);
+                    return null;
+                }
+            });
+        }
+        run(tasks);
     }
 
-    public Map<String, String> mapDataTypes(File schemaFile) throws Exception {
+    private void run(List<Callable<Void>> tasks) throws JPAGenerationException {
+        try {
+            codeGenerator.beginRun();
+        } catch (IOException ex) {
+            throw new JPAGenerationException("failed to read the generation manifest", ex);
+        }
+
+        columnFamilies.clear();
+        boolean generated = false;
+        try {
+            runTasks(tasks);
+
+            // output that does not compile is not recorded as generated
+            Map<String, List<String>> errors = codeGenerator.verifyRun();
+            if (!errors.isEmpty())
+                throw new JPAGenerationException(GeneratedSourceVerifier.report(errors, columnFamilies));
+            generated = true;
+        } finally {
+            if (!generated)
+                codeGenerator.abortRun();
+        }
 
-        BufferedReader br = new BufferedReader(new FileReader(schemaFile));
-        String s = "";
-        while (br.ready()) {
-            s += br.readLine();
+        try {
+            codeGenerator.endRun();
+        } catch (IOException ex) {
+            throw new JPAGenerationException("failed to write the generation manifest or sources jar", ex);
         }
-        System.out.println(s);
-        int firstBreak = s.indexOf("(");
-        int lastBreak = s.lastIndexOf(")");
+    }
 
-        String prefix = s.substring(0, firstBreak);
-        String body = s.substring(firstBreak + 1, lastBreak);
+    private void runTasks(List<Callable<Void>> tasks) throws JPAGenerationException {
+        if (tasks.isEmpty())
+            return;
 
-        String[] tokens = prefix.split(" ");
-        String className = tokens[tokens.length - 1].trim();
-        className = WordUtils.capitalize(className);
+        if (parallelism <= 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (JPAGenerationException ex) {
+                    throw ex;
+                } catch (Exception ex) {
+                    throw new JPAGenerationException(ex.getMessage(), ex);
+                }
+            }
+            return;
+        }
 
-        String pattern1 = "(substring\\()(\\w+)(,.*?\\))";
-        String pattern2 = "(substr\\()(\\w+)(,.*?\\))";
-        body = body.replaceAll(pattern1, "$2");
-        body = body.replaceAll(pattern2, "$2");
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()));
+        try {
+            List<Future<Void>> futures = executor.invokeAll(tasks);
 
-        Map<String, String> metaDataMap = new HashMap<String, String>();
-        tokens = body.split(",");
-        for (String pairStr : tokens) {
-            pairStr = pairStr.replace("\"", "").replace("\n", "").trim();
-            String[] valuePair = pairStr.split(" ");
-            if (valuePair.length != 2)
-                continue;
-            String key = valuePair[0];
-            String type = valuePair[1];
-            int indexSubstrMethod = key.indexOf("(");
-            if (indexSubstrMethod > 0) {
-                int indexMethodParam = type.indexOf(",");
-                key = type.substring(indexSubstrMethod + 1, indexMethodParam);
+            // check in submission order so the first failing column family is the one reported
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof JPAGenerationException)
+                        throw (JPAGenerationException) ex.getCause();
+                    throw new JPAGenerationException(ex.getCause().getMessage(), ex.getCause());
+                }
             }
-            metaDataMap.put(key, type);
-            //printMap(metaDataMap);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new JPAGenerationException("interrupted while generating", ex);
+        } finally {
+            executor.shutdownNow();
         }
-        metaDataMap.put(CLASSNAME, className);
+    }
+
+    private void generateSchemaFile(File schemaFile) throws JPAGenerationException {
+        String table = schemaFile.getName().endsWith(".db")
+                ? schemaFile.getName().substring(0, schemaFile.getName().length() - ".db".length()) : schemaFile.getName();
+        try {
+            Map<String, String> map;
+            GenerationMetrics.Stage parse = GenerationMetrics.start(metrics, table, GenerationMetrics.PARSE);
+            try {
+                map = mapDataTypes(schemaFile);
+            } finally {
+                parse.end();
+            }
+            String classNameRaw = map.remove(CLASSNAME);
+            columnFamilies.put(toClassName(classNameRaw), classNameRaw);
+            render(table, map, toClassName(classNameRaw));
+        } catch (Exception ex) {
+            throw new JPAGenerationException("failed to generate " + schemaFile.getName(), ex);
+        }
+    }
+
+    private void generateSchema(ColumnFamilySchema schema) throws JPAGenerationException {
+        try {
+            Map<String, String> map;
+            GenerationMetrics.Stage parse = GenerationMetrics.start(metrics, schema.getName(), GenerationMetrics.PARSE);
+            try {
+                map = mapDataTypes(schema);
+            } finally {
+                parse.end();
+            }
+            String classNameRaw = map.remove(CLASSNAME);
+            columnFamilies.put(toClassName(classNameRaw), schema.getName());
+            render(schema.getName(), map, toClassName(classNameRaw));
+        } catch (Exception ex) {
+            throw new JPAGenerationException("failed to generate " + schema.getName(), ex);
+        }
+    }
+
+    private void render(String table, Map<String, String> map, String className) {
+        GenerationMetrics.Stage render = GenerationMetrics.start(metrics, table, GenerationMetrics.RENDER);
+        try {
+            codeGenerator.generateCode(map, className);
+        } finally {
+            render.end();
+        }
+    }
+
+    static String toClassName(String classNameRaw) {
+        String [] tokens = classNameRaw.split("_");
+
+        StringBuilder sb = new StringBuilder();
+        for(String token: tokens) {
+            sb.append(WordUtils.capitalize(token.toLowerCase()));
+        }
+        return sb.toString();
+    }
+
+    public Map<String, String> mapDataTypes(File schemaFile) throws Exception {
+
+        CqlTableParser.Table table;
+        Reader reader = new FileReader(schemaFile);
+        try {
+            table = new CqlTableParser(reader, schemaFile.getName()).parse();
+        } finally {
+            reader.close();
+        }
+
+        Map<String, String> metaDataMap = new HashMap<String, String>(table.getColumns());
+        metaDataMap.put(CLASSNAME, WordUtils.capitalize(table.getName()));
 
         return metaDataMap;
 
     }
 
-    private void printMap(Map<String, String> map) {
-        int count = 0;
-        for (String key : map.keySet()) {
-            System.out.println(key + " => " + map.get(key));
-            count++;
+    /**
+     * Builds the same column name to type map that mapDataTypes(File) returns for the schema
+     * file SchemaFileGenerator would have written for this column family.
+     */
+    public Map<String, String> mapDataTypes(ColumnFamilySchema schema) {
+
+        Map<String, String> metaDataMap = new HashMap<String, String>();
+        for (Map.Entry<String, String> column : schema.getColumns().entrySet()) {
+            String type = SchemaFileGenerator.generateShortHand(column.getValue());
+            // unrecognised types and names with spaces do not survive the schema file parse either
+            if (type.contains(" ") || column.getKey().contains(" "))
+                continue;
+            metaDataMap.put(column.getKey(), type);
         }
-        System.out.println("total values: " + count);
+        metaDataMap.put(CLASSNAME, WordUtils.capitalize(schema.getName()));
 
+        return metaDataMap;
     }
 
 
@@ -111,4 +255,20 @@ public class CassandraDataTypeMapper {
     public void setCodeGenerator(JPACodeGenerator codeGenerator) {
         this.codeGenerator = codeGenerator;
     }
+
+    public GenerationMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(GenerationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
 }
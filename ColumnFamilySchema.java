@@ -0,0 +1,163 @@
+import com.netflix.astyanax.ddl.ColumnDefinition;
+import com.netflix.astyanax.ddl.ColumnFamilyDefinition;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory description of one column family: the same information SchemaFileGenerator writes
+ * into a "resources/schema/*.db" file, kept as objects so it can be handed straight to the code
+ * generator. Validation classes are kept in their long (marshal class) form.
+ */
+public class ColumnFamilySchema {
+
+    private String name;
+    private String keyValidationClass;
+    private final Map<String, String> columns = new LinkedHashMap<String, String>();
+
+    private Double bloomFilterFpChance;
+    private String caching;
+    private String comment;
+    private Double localReadRepairChance;
+    private Integer gcGraceSeconds;
+    private Double readRepairChance;
+    private Boolean replicateOnWrite;
+    private Object populateIoCacheOnFlush;
+    private String compactionStrategy;
+    private Map<String, String> compressionOptions = new LinkedHashMap<String, String>();
+
+    public ColumnFamilySchema() {
+    }
+
+    public ColumnFamilySchema(String name) {
+        this.name = name;
+    }
+
+    public static ColumnFamilySchema fromDefinition(ColumnFamilyDefinition definition) {
+        ColumnFamilySchema schema = new ColumnFamilySchema(definition.getName());
+        schema.setKeyValidationClass(definition.getKeyValidationClass());
+        for (ColumnDefinition columnDefinition : definition.getColumnDefinitionList()) {
+            schema.addColumn(columnDefinition.getName(), columnDefinition.getValidationClass());
+        }
+        schema.setBloomFilterFpChance(definition.getBloomFilterFpChance());
+        schema.setCaching(definition.getCaching());
+        schema.setComment(definition.getComment());
+        schema.setLocalReadRepairChance(definition.getLocalReadRepairChance());
+        schema.setGcGraceSeconds(definition.getGcGraceSeconds());
+        schema.setReadRepairChance(definition.getReadRepairChance());
+        schema.setReplicateOnWrite(definition.getReplicateOnWrite());
+        schema.setPopulateIoCacheOnFlush(definition.getFieldValue("POPULATE_IO_CACHE_ON_FLUSH"));
+        schema.setCompactionStrategy(definition.getCompactionStrategy());
+        if (definition.getCompressionOptions() != null)
+            schema.setCompressionOptions(definition.getCompressionOptions());
+        return schema;
+    }
+
+    public void addColumn(String columnName, String validationClass) {
+        columns.put(columnName, validationClass);
+    }
+
+    /**
+     * Column name to validation class, in the order the columns were defined.
+     */
+    public Map<String, String> getColumns() {
+        return Collections.unmodifiableMap(columns);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getKeyValidationClass() {
+        return keyValidationClass;
+    }
+
+    public void setKeyValidationClass(String keyValidationClass) {
+        this.keyValidationClass = keyValidationClass;
+    }
+
+    public Double getBloomFilterFpChance() {
+        return bloomFilterFpChance;
+    }
+
+    public void setBloomFilterFpChance(Double bloomFilterFpChance) {
+        this.bloomFilterFpChance = bloomFilterFpChance;
+    }
+
+    public String getCaching() {
+        return caching;
+    }
+
+    public void setCaching(String caching) {
+        this.caching = caching;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public void setComment(String comment) {
+        this.comment = comment;
+    }
+
+    public Double getLocalReadRepairChance() {
+        return localReadRepairChance;
+    }
+
+    public void setLocalReadRepairChance(Double localReadRepairChance) {
+        this.localReadRepairChance = localReadRepairChance;
+    }
+
+    public Integer getGcGraceSeconds() {
+        return gcGraceSeconds;
+    }
+
+    public void setGcGraceSeconds(Integer gcGraceSeconds) {
+        this.gcGraceSeconds = gcGraceSeconds;
+    }
+
+    public Double getReadRepairChance() {
+        return readRepairChance;
+    }
+
+    public void setReadRepairChance(Double readRepairChance) {
+        this.readRepairChance = readRepairChance;
+    }
+
+    public Boolean getReplicateOnWrite() {
+        return replicateOnWrite;
+    }
+
+    public void setReplicateOnWrite(Boolean replicateOnWrite) {
+        this.replicateOnWrite = replicateOnWrite;
+    }
+
+    public Object getPopulateIoCacheOnFlush() {
+        return populateIoCacheOnFlush;
+    }
+
+    public void setPopulateIoCacheOnFlush(Object populateIoCacheOnFlush) {
+        this.populateIoCacheOnFlush = populateIoCacheOnFlush;
+    }
+
+    public String getCompactionStrategy() {
+        return compactionStrategy;
+    }
+
+    public void setCompactionStrategy(String compactionStrategy) {
+        this.compactionStrategy = compactionStrategy;
+    }
+
+    public Map<String, String> getCompressionOptions() {
+        return compressionOptions;
+    }
+
+    public void setCompressionOptions(Map<String, String> compressionOptions) {
+        this.compressionOptions = new LinkedHashMap<String, String>(compressionOptions);
+    }
+}
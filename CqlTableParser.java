@@ -0,0 +1,403 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single pass parser for the CREATE TABLE statements found in the schema files. Reads the
+ * statement as a stream of tokens, so the cost is linear in the size of the file, and reports
+ * syntax errors with the line and column they were found at.
+ *
+ * Understands quoted identifiers, substr(column, ...) column expressions, inline and composite
+ * PRIMARY KEY definitions, collection types and the WITH ... AND ... table options. Column
+ * definitions that are not of the form "name type [static]" (for example the message written by
+ * SchemaFileGenerator for a type it does not recognise) are skipped, as they always were.
+ */
+public class CqlTableParser {
+
+    public static class Table {
+        private String keyspace;
+        private String name;
+        private final Map<String, String> columns = new LinkedHashMap<String, String>();
+        private final List<String> primaryKey = new ArrayList<String>();
+        private final Map<String, String> options = new LinkedHashMap<String, String>();
+
+        public String getKeyspace() {
+            return keyspace;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Regular columns, name to type, in definition order. Columns declared PRIMARY KEY inline
+         * are not included.
+         */
+        public Map<String, String> getColumns() {
+            return Collections.unmodifiableMap(columns);
+        }
+
+        public List<String> getPrimaryKey() {
+            return Collections.unmodifiableList(primaryKey);
+        }
+
+        /**
+         * Table options, name to value as written (string literals without their quotes).
+         */
+        public Map<String, String> getOptions() {
+            return Collections.unmodifiableMap(options);
+        }
+    }
+
+    private static final int EOF = 0;
+    private static final int WORD = 1;
+    private static final int QUOTED = 2;
+    private static final int STRING = 3;
+    private static final int SYMBOL = 4;
+
+    private static final String SYMBOLS = "(),;<>={}:[]";
+
+    private final Reader in;
+    private final String source;
+
+    private final char[] buffer = new char[8192];
+    private int bufferPos;
+    private int bufferLen;
+
+    private int line = 1;
+    private int column = 1;
+
+    private final StringBuilder text = new StringBuilder();
+    private int tokenType;
+    private String tokenText;
+    private int tokenLine;
+    private int tokenColumn;
+    private boolean pushedBack;
+
+    public CqlTableParser(Reader in, String source) {
+        this.in = in;
+        this.source = source;
+    }
+
+    public Table parse() throws IOException, JPAGenerationException {
+        Table table = new Table();
+
+        expectWord("CREATE");
+        next();
+        if (!isWord("TABLE") && !isWord("COLUMNFAMILY"))
+            throw error("expected TABLE");
+
+        next();
+        if (isWord("IF")) {
+            expectWord("NOT");
+            expectWord("EXISTS");
+            next();
+        }
+        String name = identifier();
+        int dot = tokenType == WORD ? name.lastIndexOf('.') : -1;
+        if (dot >= 0) {
+            table.keyspace = name.substring(0, dot);
+            name = name.substring(dot + 1);
+        }
+        table.name = name;
+
+        expectSymbol('(');
+        while (true) {
+            next();
+            if (isWord("PRIMARY")) {
+                expectWord("KEY");
+                expectSymbol('(');
+                parseKeyList(table.primaryKey);
+                next();
+            } else {
+                parseColumn(table);
+            }
+
+            if (isSymbol(')'))
+                break;
+            if (!isSymbol(','))
+                throw error("expected ',' or ')'");
+        }
+
+        next();
+        if (tokenType == EOF || isSymbol(';'))
+            return table;
+        if (!isWord("WITH"))
+            throw error("expected WITH or ';'");
+
+        do {
+            next();
+            parseOption(table.options);
+        } while (isWord("AND"));
+
+        if (tokenType != EOF && !isSymbol(';'))
+            throw error("expected AND or ';'");
+        return table;
+    }
+
+    private void parseColumn(Table table) throws IOException, JPAGenerationException {
+        String name = identifier();
+        if (tokenType == WORD && (name.equalsIgnoreCase("substr") || name.equalsIgnoreCase("substring"))) {
+            next();
+            if (isSymbol('(')) {
+                next();
+                name = identifier();
+                skipToClosing('(', ')');
+            } else {
+                pushBack();
+            }
+        }
+
+        // the type, followed by the column modifiers, up to the ',' or ')' ending the definition
+        StringBuilder type = new StringBuilder();
+        List<String> modifiers = new ArrayList<String>();
+        int depth = 0;
+        while (true) {
+            next();
+            if (tokenType == EOF)
+                throw error("unexpected end of file in definition of column " + name);
+            if (depth == 0 && (isSymbol(',') || isSymbol(')')))
+                break;
+            if (isSymbol('(')) {
+                skipToClosing('(', ')');
+                modifiers.add("(...)");
+                continue;
+            }
+
+            boolean partOfType = type.length() == 0 || depth > 0 || isSymbol('<') && modifiers.isEmpty();
+            if (!partOfType) {
+                modifiers.add(tokenText);
+                continue;
+            }
+            type.append(tokenText);
+            if (isSymbol('<'))
+                depth++;
+            else if (isSymbol('>'))
+                depth--;
+        }
+
+        if (modifiers.size() == 2 && modifiers.get(0).equalsIgnoreCase("PRIMARY")
+                && modifiers.get(1).equalsIgnoreCase("KEY")) {
+            table.primaryKey.add(name);
+            return;
+        }
+        if (type.length() == 0 || !(modifiers.isEmpty()
+                || modifiers.size() == 1 && modifiers.get(0).equalsIgnoreCase("static")))
+            return;
+
+        table.columns.put(name, type.toString());
+    }
+
+    private void parseKeyList(List<String> primaryKey) throws IOException, JPAGenerationException {
+        while (true) {
+            next();
+            if (isSymbol('(')) {
+                // composite partition key
+                parseKeyList(primaryKey);
+            } else {
+                primaryKey.add(identifier());
+            }
+            next();
+            if (isSymbol(')'))
+                return;
+            if (!isSymbol(','))
+                throw error("expected ',' or ')' in PRIMARY KEY");
+        }
+    }
+
+    private void parseOption(Map<String, String> options) throws IOException, JPAGenerationException {
+        if (tokenType != WORD)
+            throw error("expected table option");
+
+        if (isWord("COMPACT")) {
+            expectWord("STORAGE");
+            options.put("COMPACT STORAGE", "");
+            next();
+            return;
+        }
+        if (isWord("CLUSTERING")) {
+            expectWord("ORDER");
+            expectWord("BY");
+            expectSymbol('(');
+            options.put("CLUSTERING ORDER", readUntilClosing('(', ')'));
+            next();
+            return;
+        }
+
+        String option = tokenText;
+        expectSymbol('=');
+        next();
+        if (isSymbol('{')) {
+            options.put(option, "{" + readUntilClosing('{', '}') + "}");
+        } else if (tokenType == WORD || tokenType == STRING) {
+            options.put(option, tokenText);
+        } else {
+            throw error("expected value of option " + option);
+        }
+        next();
+    }
+
+    private void skipToClosing(char open, char close) throws IOException, JPAGenerationException {
+        readUntilClosing(open, close);
+    }
+
+    /**
+     * Reads up to the symbol closing an already consumed opening symbol and returns the tokens in
+     * between, string literals quoted again.
+     */
+    private String readUntilClosing(char open, char close) throws IOException, JPAGenerationException {
+        StringBuilder sb = new StringBuilder();
+        int depth = 1;
+        boolean separate = false;
+        while (true) {
+            next();
+            if (tokenType == EOF)
+                throw error("missing '" + close + "'");
+            if (isSymbol(open)) {
+                depth++;
+            } else if (isSymbol(close) && --depth == 0) {
+                return sb.toString();
+            }
+
+            if (tokenType == SYMBOL) {
+                sb.append(tokenText);
+                separate = tokenText.charAt(0) == ',' || tokenText.charAt(0) == ':';
+                continue;
+            }
+            if (separate)
+                sb.append(' ');
+            if (tokenType == STRING)
+                sb.append('\'').append(tokenText.replace("'", "''")).append('\'');
+            else if (tokenType == QUOTED)
+                sb.append('"').append(tokenText.replace("\"", "\"\"")).append('"');
+            else
+                sb.append(tokenText);
+            separate = true;
+        }
+    }
+
+    private String identifier() throws JPAGenerationException {
+        if (tokenType != WORD && tokenType != QUOTED)
+            throw error("expected identifier");
+        return tokenText;
+    }
+
+    private void expectWord(String word) throws IOException, JPAGenerationException {
+        next();
+        if (!isWord(word))
+            throw error("expected " + word);
+    }
+
+    private void expectSymbol(char symbol) throws IOException, JPAGenerationException {
+        next();
+        if (!isSymbol(symbol))
+            throw error("expected '" + symbol + "'");
+    }
+
+    private boolean isWord(String word) {
+        return tokenType == WORD && tokenText.equalsIgnoreCase(word);
+    }
+
+    private boolean isSymbol(char symbol) {
+        return tokenType == SYMBOL && tokenText.charAt(0) == symbol;
+    }
+
+    private JPAGenerationException error(String message) {
+        String found = tokenType == EOF ? "end of file" : "'" + tokenText + "'";
+        return new JPAGenerationException(source + ":" + tokenLine + ":" + tokenColumn + ": " + message
+                + " but found " + found);
+    }
+
+    private void pushBack() {
+        pushedBack = true;
+    }
+
+    private void next() throws IOException, JPAGenerationException {
+        if (pushedBack) {
+            pushedBack = false;
+            return;
+        }
+
+        int c = read();
+        while (c >= 0 && Character.isWhitespace(c)) {
+            c = read();
+        }
+        // read() has already moved past c
+        tokenLine = line;
+        tokenColumn = column - 1;
+
+        if (c < 0) {
+            tokenType = EOF;
+            tokenText = "";
+            return;
+        }
+
+        text.setLength(0);
+        if (c == '"' || c == '\'') {
+            readQuoted((char) c);
+            tokenType = c == '"' ? QUOTED : STRING;
+        } else if (SYMBOLS.indexOf(c) >= 0) {
+            text.append((char) c);
+            tokenType = SYMBOL;
+        } else {
+            text.append((char) c);
+            while ((c = peek()) >= 0 && !Character.isWhitespace(c) && SYMBOLS.indexOf(c) < 0
+                    && c != '"' && c != '\'') {
+                text.append((char) read());
+            }
+            tokenType = WORD;
+        }
+        tokenText = text.toString();
+    }
+
+    private void readQuoted(char quote) throws IOException, JPAGenerationException {
+        while (true) {
+            int c = read();
+            if (c < 0) {
+                tokenType = EOF;
+                tokenText = "";
+                throw new JPAGenerationException(source + ":" + tokenLine + ":" + tokenColumn
+                        + ": unterminated " + (quote == '"' ? "quoted identifier" : "string literal"));
+            }
+            if (c == quote) {
+                // a doubled quote is an escaped quote
+                if (peek() != quote)
+                    return;
+                read();
+            }
+            text.append((char) c);
+        }
+    }
+
+    private int peek() throws IOException {
+        if (bufferPos == bufferLen && !fill())
+            return -1;
+        return buffer[bufferPos];
+    }
+
+    private int read() throws IOException {
+        if (bufferPos == bufferLen && !fill())
+            return -1;
+        char c = buffer[bufferPos++];
+        if (c == '\n') {
+            line++;
+            column = 1;
+        } else {
+            column++;
+        }
+        return c;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0)
+            return false;
+        bufferPos = 0;
+        bufferLen = n;
+        return true;
+    }
+}
@@ -0,0 +1,438 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps CQL column types to what the generated classes use for them: the field type, the Astyanax
+ * serializer of the codec, the value the generated tests set and the WorkloadDriver call making
+ * random values. Covers the CQL 3 types of Cassandra 1.2 and 2.0; list, set and map columns are
+ * mapped from their element types. Fields are primitive where the type has no null value (a
+ * missing column then reads as 0 or false, as with DefaultEntityManager) and the codecs read them
+ * without boxing. blob columns are ByteBuffers sharing the bytes of the column read, not copies.
+ * inet has no built-in mapping, Astyanax having no serializer for InetAddress: a table with an inet
+ * column fails to generate, naming the column, unless a mapping file defines the type (its random
+ * values can come from the WorkloadDriver method inet).
+ *
+ * A mapping file (java.util.Properties format) changes properties of the built-in types or adds
+ * types, for example to keep decimal columns as doubles:
+ * <pre>
+ * decimal.java = double
+ * decimal.javaImports =
+ * decimal.serializer = DoubleSerializer.get()
+ * decimal.serializerImports = com.netflix.astyanax.serializers.DoubleSerializer
+ * decimal.fixture = 1.1
+ * decimal.random = real
+ * </pre>
+ * The properties of a type are
+ * <pre>
+ * java               field type, primitive or a class
+ * serializer         expression of the Astyanax Serializer
+ * marshal            expression of the Cassandra AbstractType, needed for collections of the type
+ * fixture            value set by the generated tests, $name is replaced by a word made of the field name
+ * random             WorkloadDriver method making a random value, or an expression of random and $column
+ * read               expression reading the value of the Column "column" (column.getValue(serializer))
+ * writable           false for columns that cannot be written with putColumn, like counters
+ * </pre>
+ * and javaImports, serializerImports, marshalImports and fixtureImports, the comma separated
+ * classes the expressions need.
+ */
+public class CqlTypeMapping {
+
+    private static final String SERIALIZERS = "com.netflix.astyanax.serializers.";
+    private static final String MARSHAL = "org.apache.cassandra.db.marshal.";
+
+    private static final String[] PROPERTIES = {"java", "javaImports", "serializer", "serializerImports", "marshal",
+            "marshalImports", "fixture", "fixtureImports", "random", "read", "writable"};
+
+    private static final Map<String, String> BOXED = new HashMap<String, String>();
+    private static final Map<String, String> ALIASES = new HashMap<String, String>();
+
+    static {
+        ALIASES.put("varchar", "text");
+
+        BOXED.put("boolean", "Boolean");
+        BOXED.put("byte", "Byte");
+        BOXED.put("short", "Short");
+        BOXED.put("int", "Integer");
+        BOXED.put("long", "Long");
+        BOXED.put("float", "Float");
+        BOXED.put("double", "Double");
+        BOXED.put("char", "Character");
+    }
+
+    public static class Type {
+        private final String cqlType;
+        private final String javaType;
+        private final String serializer;
+        private final String marshal;
+        private final String fixture;
+        private final String random;
+        private final String read;
+        private final boolean writable;
+        private final Set<String> javaImports;
+        private final Set<String> serializerImports;
+        private final Set<String> marshalImports;
+        private final Set<String> fixtureImports;
+
+        private Type(String cqlType, Map<String, String> properties) {
+            this(cqlType, properties.get("java"), properties.get("serializer"), properties.get("marshal"),
+                    properties.get("fixture"), properties.get("random"), properties.get("read"),
+                    !"false".equals(properties.get("writable")), split(properties.get("javaImports")),
+                    split(properties.get("serializerImports")), split(properties.get("marshalImports")),
+                    split(properties.get("fixtureImports")));
+        }
+
+        private Type(String cqlType, String javaType, String serializer, String marshal, String fixture,
+                     String random, String read, boolean writable, Set<String> javaImports,
+                     Set<String> serializerImports, Set<String> marshalImports, Set<String> fixtureImports) {
+            this.cqlType = cqlType;
+            this.javaType = javaType;
+            this.serializer = serializer;
+            this.marshal = marshal;
+            this.fixture = fixture;
+            this.random = random;
+            this.read = read;
+            this.writable = writable;
+            this.javaImports = javaImports;
+            this.serializerImports = serializerImports;
+            this.marshalImports = marshalImports;
+            this.fixtureImports = fixtureImports;
+        }
+
+        public String getCqlType() {
+            return cqlType;
+        }
+
+        public String getJavaType() {
+            return javaType;
+        }
+
+        /**
+         * The field type, boxed when it is primitive, for type arguments.
+         */
+        public String getBoxedType() {
+            String boxed = BOXED.get(javaType);
+            return boxed != null ? boxed : javaType;
+        }
+
+        public boolean isPrimitive() {
+            return BOXED.containsKey(javaType);
+        }
+
+        public String getSerializer() {
+            return serializer;
+        }
+
+        public String getMarshal() {
+            return marshal;
+        }
+
+        public boolean isWritable() {
+            return writable;
+        }
+
+        /**
+         * Expression of the value the generated tests set, or null to leave the field alone.
+         */
+        public String fixtureValue(String fieldName) {
+            if (fixture == null)
+                return null;
+            String word = fieldName.substring(0, 1).toLowerCase() + fieldName.substring(1).toUpperCase();
+            return fixture.replace("$name", word);
+        }
+
+        /**
+         * Expression of a random value for the column in a WorkloadDriver, or null to leave the
+         * field alone.
+         */
+        public String randomValue(String columnName) {
+            if (random == null)
+                return null;
+            return randomTemplate().replace("$column", "\"" + columnName + "\"");
+        }
+
+        private String randomTemplate() {
+            return random.indexOf('(') < 0 ? random + "(random, $column)" : random;
+        }
+
+        /**
+         * Expression reading the value from the Column named column, with the serializer given.
+         */
+        public String readValue(String serializerExpression) {
+            if (read != null)
+                return read;
+            return "column.getValue(" + serializerExpression + ")";
+        }
+
+        public Set<String> getJavaImports() {
+            return javaImports;
+        }
+
+        public Set<String> getSerializerImports() {
+            return serializerImports;
+        }
+
+        public Set<String> getMarshalImports() {
+            return marshalImports;
+        }
+
+        public Set<String> getFixtureImports() {
+            return fixtureImports;
+        }
+    }
+
+    /**
+     * Properties of the types by CQL type name, built in ones first and then those of the
+     * mapping file.
+     */
+    private final Map<String, Map<String, String>> definitions = new TreeMap<String, Map<String, String>>();
+    private final ConcurrentMap<String, Type> types = new ConcurrentHashMap<String, Type>();
+
+    private File mappingFile;
+
+    public CqlTypeMapping() {
+        define("text", "String", "", "StringSerializer", "UTF8Type", "\"$name\"", "", "text");
+        define("ascii", "String", "", "AsciiSerializer", "AsciiType", "\"$name\"", "", "text");
+        define("int", "int", "", "IntegerSerializer", "Int32Type", "1", "", "integer");
+        define("bigint", "long", "", "LongSerializer", "LongType", "1L", "", "bigint");
+        define("varint", "BigInteger", "java.math.BigInteger", "BigIntegerSerializer", "IntegerType",
+                "BigInteger.ONE", "", "varint");
+        define("float", "float", "", "FloatSerializer", "FloatType", "1.1f", "", "floating");
+        define("double", "double", "", "DoubleSerializer", "DoubleType", "1.1", "", "real");
+        define("decimal", "BigDecimal", "java.math.BigDecimal", "BigDecimalSerializer", "DecimalType",
+                "new BigDecimal(\"1.1\")", "", "decimal");
+        define("boolean", "boolean", "", "BooleanSerializer", "BooleanType", "true", "", "bool");
+        define("timestamp", "Date", "java.util.Date", "DateSerializer", "DateType", "new Date()", "", "date");
+        define("uuid", "UUID", "java.util.UUID", "UUIDSerializer", "UUIDType", "UUID.randomUUID()", "", "uuid");
+        define("timeuuid", "UUID", "java.util.UUID", "TimeUUIDSerializer", "TimeUUIDType",
+                "TimeUUIDUtils.getUniqueTimeUUIDinMillis()", "com.netflix.astyanax.util.TimeUUIDUtils", "timeuuid");
+        define("blob", "ByteBuffer", "java.nio.ByteBuffer", "ByteBufferSerializer", "BytesType",
+                "ByteBuffer.wrap(\"$name\".getBytes())", "", "blob");
+        // primitives are read without boxing, and the blob value shares the bytes of the column
+        // instead of being copied by the serializer
+        definitions.get("int").put("read", "column.getIntegerValue()");
+        definitions.get("bigint").put("read", "column.getLongValue()");
+        definitions.get("float").put("read", "column.getFloatValue()");
+        definitions.get("double").put("read", "column.getDoubleValue()");
+        definitions.get("boolean").put("read", "column.getBooleanValue()");
+        definitions.get("blob").put("read", "column.getByteBufferValue()");
+        // counters are changed with incrementCounterColumn, not written with the rest of the row
+        define("counter", "long", "", "LongSerializer", "CounterColumnType", null, "", null);
+        definitions.get("counter").put("read", "column.getLongValue()");
+        definitions.get("counter").put("writable", "false");
+        definitions.get("counter").remove("marshal");
+    }
+
+    private void define(String cqlType, String javaType, String javaImport, String serializer, String marshal,
+                        String fixture, String fixtureImport, String random) {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("java", javaType);
+        properties.put("javaImports", javaImport);
+        properties.put("serializer", serializer + ".get()");
+        properties.put("serializerImports", SERIALIZERS + serializer);
+        properties.put("marshal", marshal + ".instance");
+        properties.put("marshalImports", MARSHAL + marshal);
+        if (fixture != null)
+            properties.put("fixture", fixture);
+        properties.put("fixtureImports", fixtureImport.length() == 0 ? properties.get("javaImports")
+                : properties.get("javaImports") + "," + fixtureImport);
+        if (random != null)
+            properties.put("random", random);
+        definitions.put(cqlType, properties);
+    }
+
+    public File getMappingFile() {
+        return mappingFile;
+    }
+
+    /**
+     * Reads the mapping file on top of the built-in types.
+     */
+    public void setMappingFile(File mappingFile) throws IOException {
+        Reader in = new FileReader(mappingFile);
+        try {
+            load(in);
+        } finally {
+            in.close();
+        }
+        this.mappingFile = mappingFile;
+    }
+
+    public synchronized void load(Reader in) throws IOException {
+        Properties file = new Properties();
+        file.load(in);
+        for (String key : file.stringPropertyNames()) {
+            int dot = key.lastIndexOf('.');
+            String property = dot < 0 ? "" : key.substring(dot + 1);
+            if (!Arrays.asList(PROPERTIES).contains(property))
+                throw new IllegalArgumentException("unknown type mapping property " + key);
+            String cqlType = normalize(key.substring(0, dot));
+            Map<String, String> properties = definitions.get(cqlType);
+            if (properties == null) {
+                properties = new HashMap<String, String>();
+                definitions.put(cqlType, properties);
+            }
+            String value = file.getProperty(key).trim();
+            if (value.length() == 0 && !property.endsWith("Imports"))
+                properties.remove(property);
+            else
+                properties.put(property, value);
+        }
+        types.clear();
+    }
+
+    /**
+     * The mapping of the CQL type, or null when there is none. Collections are mapped from the
+     * mapping of their elements.
+     */
+    public Type get(String cqlType) {
+        String name = normalize(cqlType);
+        Type type = types.get(name);
+        if (type == null) {
+            type = resolve(name);
+            if (type != null)
+                types.put(name, type);
+        }
+        return type;
+    }
+
+    /**
+     * A text form of all type definitions; it changes whenever the generated code of some type
+     * would.
+     */
+    public synchronized String fingerprint() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Map<String, String>> definition : definitions.entrySet()) {
+            sb.append(definition.getKey()).append(new TreeMap<String, String>(definition.getValue())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private synchronized Type resolve(String name) {
+        Map<String, String> properties = definitions.get(name);
+        if (properties != null)
+            return properties.containsKey("java") && properties.containsKey("serializer") ? new Type(name, properties) : null;
+
+        int open = name.indexOf('<');
+        if (open < 0 || !name.endsWith(">"))
+            return null;
+        String collection = name.substring(0, open);
+        List<String> arguments = splitArguments(name.substring(open + 1, name.length() - 1));
+        List<Type> elements = new ArrayList<Type>();
+        for (String argument : arguments) {
+            Type element = get(argument);
+            if (element == null || element.marshal == null)
+                return null;
+            elements.add(element);
+        }
+
+        if ((collection.equals("list") || collection.equals("set")) && elements.size() == 1) {
+            Type element = elements.get(0);
+            boolean list = collection.equals("list");
+            String javaInterface = list ? "List" : "Set";
+            String javaClass = list ? "ArrayList" : "HashSet";
+            String marshalClass = list ? "ListType" : "SetType";
+            String marshal = marshalClass + ".getInstance(" + element.marshal + ")";
+            String javaType = javaInterface + "<" + element.getBoxedType() + ">";
+            return new Type(name, javaType,
+                    "new " + javaInterface + "Serializer<" + element.getBoxedType() + ">(" + element.marshal + ")",
+                    marshal,
+                    element.fixture == null ? null : "new " + javaClass + "<" + element.getBoxedType() + ">(Arrays.asList("
+                            + element.fixture + "))",
+                    element.random == null ? null : collection + "(" + element.randomTemplate() + ")",
+                    null, true,
+                    union(element.javaImports, "java.util." + javaInterface),
+                    union(union(element.marshalImports, element.javaImports), SERIALIZERS + javaInterface + "Serializer"),
+                    union(element.marshalImports, MARSHAL + marshalClass),
+                    union(element.fixtureImports, "java.util." + javaClass, "java.util.Arrays"));
+        }
+        if (collection.equals("map") && elements.size() == 2) {
+            Type key = elements.get(0);
+            Type value = elements.get(1);
+            String typeArguments = key.getBoxedType() + ", " + value.getBoxedType();
+            String marshal = "MapType.getInstance(" + key.marshal + ", " + value.marshal + ")";
+            return new Type(name, "Map<" + typeArguments + ">",
+                    "new MapSerializer<" + typeArguments + ">(" + key.marshal + ", " + value.marshal + ")",
+                    marshal,
+                    key.fixture == null || value.fixture == null ? null : "new HashMap<" + typeArguments
+                            + ">(Collections.singletonMap(" + key.fixture + ", " + value.fixture + "))",
+                    key.random == null || value.random == null ? null : "map("
+                            + key.randomTemplate() + ", " + value.randomTemplate() + ")",
+                    null, true,
+                    union(union(key.javaImports, value.javaImports), "java.util.Map"),
+                    union(union(union(key.marshalImports, value.marshalImports), union(key.javaImports, value.javaImports)),
+                            SERIALIZERS + "MapSerializer"),
+                    union(union(key.marshalImports, value.marshalImports), MARSHAL + "MapType"),
+                    union(union(key.fixtureImports, value.fixtureImports), "java.util.HashMap", "java.util.Collections"));
+        }
+        return null;
+    }
+
+    /**
+     * Lower case without blanks, frozen&lt;...&gt; unwrapped and aliases (varchar) replaced.
+     */
+    static String normalize(String cqlType) {
+        String name = cqlType.replaceAll("\\s+", "").toLowerCase();
+        if (name.startsWith("frozen<") && name.endsWith(">"))
+            name = name.substring(7, name.length() - 1);
+        int open = name.indexOf('<');
+        if (open >= 0 && name.endsWith(">")) {
+            StringBuilder sb = new StringBuilder(name.substring(0, open + 1));
+            List<String> arguments = splitArguments(name.substring(open + 1, name.length() - 1));
+            for (int i = 0; i < arguments.size(); i++) {
+                if (i > 0)
+                    sb.append(',');
+                sb.append(normalize(arguments.get(i)));
+            }
+            return sb.append('>').toString();
+        }
+        String alias = ALIASES.get(name);
+        return alias != null ? alias : name;
+    }
+
+    private static List<String> splitArguments(String arguments) {
+        List<String> split = new ArrayList<String>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < arguments.length(); i++) {
+            char c = arguments.charAt(i);
+            if (c == '<') {
+                depth++;
+            } else if (c == '>') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                split.add(arguments.substring(start, i));
+                start = i + 1;
+            }
+        }
+        split.add(arguments.substring(start));
+        return split;
+    }
+
+    private static Set<String> split(String imports) {
+        Set<String> split = new TreeSet<String>();
+        if (imports == null)
+            return split;
+        for (String name : imports.split(",")) {
+            if (name.trim().length() > 0)
+                split.add(name.trim());
+        }
+        return split;
+    }
+
+    private static Set<String> union(Set<String> imports, String... more) {
+        Set<String> union = new TreeSet<String>(imports);
+        union.addAll(Arrays.asList(more));
+        return union;
+    }
+
+    private static Set<String> union(Set<String> imports, Set<String> more) {
+        Set<String> union = new TreeSet<String>(imports);
+        union.addAll(more);
+        return union;
+    }
+}
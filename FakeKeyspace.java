@@ -0,0 +1,154 @@
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.ddl.ColumnDefinition;
+import com.netflix.astyanax.ddl.ColumnFamilyDefinition;
+import com.netflix.astyanax.ddl.KeyspaceDefinition;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A Keyspace that needs no cluster: describeKeyspace() returns the given column families, which
+ * is all SchemaFileGenerator reads. Give it to SchemaFileGenerator.setKeyspaces() to run the
+ * generator, or test it, offline. The list is read on every call, and describeSchemaVersions()
+ * reports a version derived from its content, so changing the list is a schema change to the
+ * SchemaWatcher. Every other method throws UnsupportedOperationException.
+ */
+public class FakeKeyspace {
+
+    private FakeKeyspace() {
+    }
+
+    public static Keyspace create(final String name, final List<ColumnFamilySchema> schemas) {
+        return proxy(Keyspace.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getKeyspaceName"))
+                    return name;
+                if (method.getName().equals("describeKeyspace"))
+                    return keyspace(name, schemas);
+                if (method.getName().equals("describeSchemaVersions"))
+                    return Collections.singletonMap(schemaVersion(schemas), Collections.singletonList("127.0.0.1"));
+                return unsupported(proxy, method, args);
+            }
+        });
+    }
+
+    private static String schemaVersion(List<ColumnFamilySchema> schemas) {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        SchemaFileGenerator schemaFileGenerator = new SchemaFileGenerator(null);
+        for (ColumnFamilySchema schema : schemas) {
+            schemaFileGenerator.writeSchema(schema, out);
+        }
+        out.close();
+        return UUID.nameUUIDFromBytes(text.toString().getBytes()).toString();
+    }
+
+    private static KeyspaceDefinition keyspace(final String name, List<ColumnFamilySchema> schemas) {
+        final List<ColumnFamilyDefinition> columnFamilies = new ArrayList<ColumnFamilyDefinition>(schemas.size());
+        for (ColumnFamilySchema schema : schemas) {
+            columnFamilies.add(columnFamily(name, schema));
+        }
+
+        return proxy(KeyspaceDefinition.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String methodName = method.getName();
+                if (methodName.equals("getName"))
+                    return name;
+                if (methodName.equals("getColumnFamilyList"))
+                    return Collections.unmodifiableList(columnFamilies);
+                if (methodName.equals("getColumnFamily")) {
+                    for (ColumnFamilyDefinition columnFamily : columnFamilies) {
+                        if (columnFamily.getName().equals(args[0]))
+                            return columnFamily;
+                    }
+                    return null;
+                }
+                return unsupported(proxy, method, args);
+            }
+        });
+    }
+
+    private static ColumnFamilyDefinition columnFamily(final String keyspaceName, final ColumnFamilySchema schema) {
+        final List<ColumnDefinition> columns = new ArrayList<ColumnDefinition>(schema.getColumns().size());
+        for (Map.Entry<String, String> column : schema.getColumns().entrySet()) {
+            columns.add(column(column.getKey(), column.getValue()));
+        }
+
+        return proxy(ColumnFamilyDefinition.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String methodName = method.getName();
+                if (methodName.equals("getName"))
+                    return schema.getName();
+                if (methodName.equals("getKeyspace"))
+                    return keyspaceName;
+                if (methodName.equals("getKeyValidationClass"))
+                    return schema.getKeyValidationClass();
+                if (methodName.equals("getColumnDefinitionList"))
+                    return Collections.unmodifiableList(columns);
+                if (methodName.equals("getBloomFilterFpChance"))
+                    return schema.getBloomFilterFpChance();
+                if (methodName.equals("getCaching"))
+                    return schema.getCaching();
+                if (methodName.equals("getComment"))
+                    return schema.getComment();
+                if (methodName.equals("getLocalReadRepairChance"))
+                    return schema.getLocalReadRepairChance();
+                if (methodName.equals("getGcGraceSeconds"))
+                    return schema.getGcGraceSeconds();
+                if (methodName.equals("getReadRepairChance"))
+                    return schema.getReadRepairChance();
+                if (methodName.equals("getReplicateOnWrite"))
+                    return schema.getReplicateOnWrite();
+                if (methodName.equals("getCompactionStrategy"))
+                    return schema.getCompactionStrategy();
+                if (methodName.equals("getCompressionOptions"))
+                    return schema.getCompressionOptions();
+                if (methodName.equals("getFieldValue") && "POPULATE_IO_CACHE_ON_FLUSH".equals(args[0]))
+                    return schema.getPopulateIoCacheOnFlush();
+                return unsupported(proxy, method, args);
+            }
+        });
+    }
+
+    private static ColumnDefinition column(final String name, final String validationClass) {
+        return proxy(ColumnDefinition.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getName"))
+                    return name;
+                if (method.getName().equals("getValidationClass"))
+                    return validationClass;
+                if (method.getName().equals("hasIndex"))
+                    return Boolean.FALSE;
+                return unsupported(proxy, method, args);
+            }
+        });
+    }
+
+    private static Object unsupported(Object proxy, Method method, Object[] args) {
+        // Object methods, so that the proxies can be logged and put in collections
+        if (method.getName().equals("toString") && method.getParameterTypes().length == 0)
+            return "FakeKeyspace." + method.getDeclaringClass().getSimpleName();
+        if (method.getName().equals("hashCode") && method.getParameterTypes().length == 0)
+            return System.identityHashCode(proxy);
+        if (method.getName().equals("equals") && method.getParameterTypes().length == 1)
+            return proxy == args[0];
+        throw new UnsupportedOperationException(method.getDeclaringClass().getSimpleName() + "." + method.getName()
+                + " is not supported by FakeKeyspace");
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(FakeKeyspace.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
@@ -0,0 +1,379 @@
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compiles the sources of a generator run in memory, to find generated code that does not compile
+ * without waiting for the project build.
+ *
+ * The support classes are compiled first, together with stubs of the base classes the generated
+ * code extends but the generator does not write (DomainBase, IAbstractDao, AbstractAstyanaxDaoImpl
+ * and so on); the test base classes hold the CassandraServer in a static field, which the
+ * generated tests create their column families with in @BeforeClass. The classes of the column
+ * families are then compiled against them in batches, several batches at a time. Libraries such
+ * as Astyanax, JUnit and JMH come from the class path. Nothing is written to disk.
+ */
+public class GeneratedSourceVerifier {
+
+    // errors reported per class before the rest are counted only
+    private static final int MAX_ERRORS = 10;
+
+    private final String packageName;
+    private final String classpath;
+    private final int parallelism;
+    private final int batchSize;
+
+    private final Map<String, String> supportSources = new ConcurrentHashMap<String, String>();
+    private final ConcurrentHashMap<String, Map<String, String>> entitySources = new ConcurrentHashMap<String, Map<String, String>>();
+
+    /**
+     * @param classpath class path of the libraries the generated code uses, null for the class path
+     *                  of the generator itself
+     */
+    public GeneratedSourceVerifier(String packageName, String classpath, int parallelism, int batchSize) {
+        this.packageName = packageName;
+        this.classpath = classpath != null ? classpath : System.getProperty("java.class.path");
+        this.parallelism = Math.max(1, parallelism);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Adds a generated source; className is the class of the column family it was generated for,
+     * null for the support classes.
+     */
+    public void add(String className, String path, String content) {
+        if (className == null) {
+            supportSources.put(path, content);
+            return;
+        }
+        Map<String, String> sources = entitySources.get(className);
+        if (sources == null) {
+            entitySources.putIfAbsent(className, new ConcurrentHashMap<String, String>());
+            sources = entitySources.get(className);
+        }
+        sources.put(path, content);
+    }
+
+    /**
+     * Compiles everything added and returns the errors by the class of the column family they are
+     * in, "support classes" for the support classes; empty when all of it compiles.
+     */
+    public Map<String, List<String>> verify() throws JPAGenerationException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new JPAGenerationException("no Java compiler available, run the generator with a JDK");
+
+        Map<String, List<String>> errors = new TreeMap<String, List<String>>();
+
+        List<JavaFileObject> supportUnits = new ArrayList<JavaFileObject>(stubs());
+        for (Map.Entry<String, String> source : supportSources.entrySet()) {
+            supportUnits.add(new Source(source.getKey(), source.getValue(), null));
+        }
+        final Map<String, byte[]> supportClasses = new HashMap<String, byte[]>();
+        compile(compiler, supportUnits, Collections.<String, byte[]>emptyMap(), supportClasses, errors);
+        if (!errors.isEmpty())
+            return errors;
+
+        List<String> classNames = new ArrayList<String>(new TreeSet<String>(entitySources.keySet()));
+        List<Callable<Map<String, List<String>>>> batches = new ArrayList<Callable<Map<String, List<String>>>>();
+        for (int start = 0; start < classNames.size(); start += batchSize) {
+            final List<String> batch = classNames.subList(start, Math.min(start + batchSize, classNames.size()));
+            batches.add(new Callable<Map<String, List<String>>>() {
+                @Override
+                public Map<String, List<String>> call() throws Exception {
+                    List<JavaFileObject> units = new ArrayList<JavaFileObject>();
+                    for (String className : batch) {
+                        for (Map.Entry<String, String> source : entitySources.get(className).entrySet()) {
+                            units.add(new Source(source.getKey(), source.getValue(), className));
+                        }
+                    }
+                    Map<String, List<String>> batchErrors = new TreeMap<String, List<String>>();
+                    compile(compiler, units, supportClasses, new HashMap<String, byte[]>(), batchErrors);
+                    return batchErrors;
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, batches.size())));
+        try {
+            for (Future<Map<String, List<String>>> batch : executor.invokeAll(batches)) {
+                errors.putAll(batch.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new JPAGenerationException("interrupted while compiling the generated code", ex);
+        } catch (ExecutionException ex) {
+            throw new JPAGenerationException("failed to compile the generated code", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return errors;
+    }
+
+    /**
+     * The errors returned by verify() as one message; columnFamilies maps class names to the names
+     * of their column families.
+     */
+    static String report(Map<String, List<String>> errors, Map<String, String> columnFamilies) {
+        StringBuilder report = new StringBuilder("generated code does not compile");
+        for (Map.Entry<String, List<String>> owner : errors.entrySet()) {
+            String columnFamily = columnFamilies.get(owner.getKey());
+            report.append("\n  ").append(owner.getKey());
+            if (columnFamily != null)
+                report.append(" (column family ").append(columnFamily).append(")");
+            for (String message : owner.getValue()) {
+                report.append("\n    ").append(message);
+            }
+        }
+        return report.toString();
+    }
+
+    private void compile(JavaCompiler compiler, List<JavaFileObject> units, Map<String, byte[]> classes,
+                         Map<String, byte[]> output, Map<String, List<String>> errors) {
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, null);
+        MemoryFileManager fileManager = new MemoryFileManager(standard, classes, output);
+        try {
+            List<String> options = Arrays.asList("-classpath", classpath, "-proc:none", "-nowarn", "-g:none");
+            compiler.getTask(null, fileManager, diagnostics, options, null, units).call();
+        } finally {
+            try {
+                fileManager.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() != Diagnostic.Kind.ERROR)
+                continue;
+            String owner = "support classes";
+            String file = "";
+            if (diagnostic.getSource() instanceof Source) {
+                Source source = (Source) diagnostic.getSource();
+                if (source.className != null)
+                    owner = source.className;
+                file = source.getName().substring(source.getName().lastIndexOf('/') + 1) + ":" + diagnostic.getLineNumber() + ": ";
+            }
+            List<String> messages = errors.get(owner);
+            if (messages == null) {
+                messages = new ArrayList<String>();
+                errors.put(owner, messages);
+            }
+            if (messages.size() < MAX_ERRORS)
+                messages.add(file + diagnostic.getMessage(null));
+            else if (messages.size() == MAX_ERRORS)
+                messages.add("...");
+        }
+    }
+
+    /**
+     * Stubs of the classes the generated code expects from the project it is generated into.
+     */
+    private List<JavaFileObject> stubs() {
+        List<JavaFileObject> stubs = new ArrayList<JavaFileObject>();
+        stubs.add(stub("", "CassandraServer",
+                "public interface CassandraServer {",
+                "\tcom.netflix.astyanax.Keyspace getKeyspace();",
+                "}"));
+        stubs.add(stub(".domain", "DomainBase",
+                "public abstract class DomainBase {",
+                "}"));
+        stubs.add(stub(".domain", "AbstractDomainTest",
+                "public abstract class AbstractDomainTest {",
+                "\tprotected static " + packageName + ".CassandraServer cassandraServer;",
+                "}"));
+        stubs.add(stub(".dao", "IAbstractDao",
+                "import java.util.*;",
+                "",
+                "public interface IAbstractDao<T, K> {",
+                abstractDaoMethods(";", ";"),
+                "\tvoid setEntityManager(com.netflix.astyanax.entitystore.EntityManager<T, K> entityManager);",
+                "}"));
+        stubs.add(stub(".dao", "AbstractDaoTest",
+                "public abstract class AbstractDaoTest<T, K> {",
+                "\tprotected static " + packageName + ".CassandraServer cassandraServer;",
+                "\tprotected com.netflix.astyanax.entitystore.EntityManager<T, K> entityManager;",
+                "}"));
+        stubs.add(stub(".dao.impl", "AbstractAstyanaxDaoImpl",
+                "import java.util.*;",
+                "import com.netflix.astyanax.entitystore.EntityManager;",
+                "",
+                "public abstract class AbstractAstyanaxDaoImpl<T, K> implements " + packageName + ".dao.IAbstractDao<T, K> {",
+                "\tprotected EntityManager<T, K> entityManager;",
+                "\tprotected " + packageName + ".CassandraServer cassandraServer;",
+                "\tpublic abstract void init();",
+                abstractDaoMethods(" { throw new UnsupportedOperationException(); }", " { }").replace("\t", "\tpublic "),
+                "\tpublic void setEntityManager(EntityManager<T, K> entityManager) { this.entityManager = entityManager; }",
+                "}"));
+        stubs.add(stub(".service", "IAbstractService",
+                "import java.util.*;",
+                "",
+                "public interface IAbstractService<T, K> {",
+                abstractDaoMethods(";", ";"),
+                "}"));
+        stubs.add(stub(".service", "AbstractServiceTest",
+                "public abstract class AbstractServiceTest<T, K> {",
+                "}"));
+        return stubs;
+    }
+
+    private static String abstractDaoMethods(String body, String voidBody) {
+        StringWriter buffer = new StringWriter();
+        PrintWriter out = new PrintWriter(buffer);
+        out.println("\tT get(K id)" + body);
+        out.println("\tList<T> getAll()" + body);
+        out.println("\tList<T> get(Collection<K> ids)" + body);
+        out.println("\tvoid save(T entity)" + voidBody);
+        out.println("\tvoid save(Collection<T> entities)" + voidBody);
+        out.println("\tvoid delete(T entity)" + voidBody);
+        out.println("\tvoid deleteById(K id)" + voidBody);
+        out.println("\tvoid deleteByIds(Collection<K> ids)" + voidBody);
+        out.println("\tvoid delete(Collection<T> entities)" + voidBody);
+        out.println("\tList<T> find(String cql)" + body);
+        out.println("\tvoid createStorage(Map<String, Object> options)" + voidBody);
+        out.println("\tvoid deleteStorage()" + voidBody);
+        out.print("\tvoid truncate()" + voidBody);
+        out.close();
+        return buffer.toString();
+    }
+
+    private JavaFileObject stub(String subPackage, String name, String... lines) {
+        StringWriter buffer = new StringWriter();
+        PrintWriter classOut = new PrintWriter(buffer);
+        classOut.println("package " + packageName + subPackage + ";");
+        classOut.println();
+        for (String line : lines) {
+            classOut.println(line);
+        }
+        classOut.close();
+        return new Source((packageName + subPackage).replace('.', '/') + "/" + name + ".java", buffer.toString(), null);
+    }
+
+    /**
+     * A generated source, and the column family class it belongs to.
+     */
+    private static class Source extends SimpleJavaFileObject {
+        private final String content;
+        private final String className;
+
+        private Source(String path, String content, String className) {
+            super(URI.create("string:///" + path.replace('\\', '/').replaceAll("^/+", "").replace(" ", "%20")), Kind.SOURCE);
+            this.content = content;
+            this.className = className;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return content;
+        }
+    }
+
+    /**
+     * A compiled class held in memory.
+     */
+    private static class ClassFile extends SimpleJavaFileObject {
+        private final String binaryName;
+        private final Map<String, byte[]> classes;
+
+        private ClassFile(String binaryName, Map<String, byte[]> classes) {
+            super(URI.create("mem:///" + binaryName.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+            this.binaryName = binaryName;
+            this.classes = classes;
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(classes.get(binaryName));
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    synchronized (classes) {
+                        classes.put(binaryName, toByteArray());
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Writes class files to memory, and finds the classes compiled before on the class path.
+     */
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, byte[]> classes;
+        private final Map<String, byte[]> output;
+
+        private MemoryFileManager(StandardJavaFileManager fileManager, Map<String, byte[]> classes,
+                                  Map<String, byte[]> output) {
+            super(fileManager);
+            this.classes = classes;
+            this.output = output;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                   FileObject sibling) {
+            return new ClassFile(className, output);
+        }
+
+        @Override
+        public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds,
+                                             boolean recurse) throws IOException {
+            Iterable<JavaFileObject> listed = super.list(location, packageName, kinds, recurse);
+            if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS))
+                return listed;
+
+            List<JavaFileObject> all = new ArrayList<JavaFileObject>();
+            for (String binaryName : classes.keySet()) {
+                String classPackage = binaryName.lastIndexOf('.') < 0 ? "" : binaryName.substring(0, binaryName.lastIndexOf('.'));
+                if (classPackage.equals(packageName) || recurse && classPackage.startsWith(packageName + "."))
+                    all.add(new ClassFile(binaryName, classes));
+            }
+            for (JavaFileObject file : listed) {
+                all.add(file);
+            }
+            return all;
+        }
+
+        @Override
+        public String inferBinaryName(Location location, JavaFileObject file) {
+            if (file instanceof ClassFile)
+                return ((ClassFile) file).binaryName;
+            return super.inferBinaryName(location, file);
+        }
+
+        @Override
+        public boolean isSameFile(FileObject a, FileObject b) {
+            if (a instanceof ClassFile || b instanceof ClassFile || a instanceof Source || b instanceof Source)
+                return a == b;
+            return super.isSameFile(a, b);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Remembers, per generated class, the hash of the column family definition it was generated from
+ * and the hash of every file written for it, so that incremental runs can skip unchanged column
+ * families and files and remove the output of dropped column families.
+ *
+ * The manifest is a plain text file:
+ * <pre>
+ * table &lt;className&gt; &lt;schemaHash&gt;
+ * file &lt;className&gt; &lt;contentHash&gt; &lt;path relative to the output directory&gt;
+ * </pre>
+ *
+ * The output directory may be on any file system, a sources jar for example.
+ */
+public class GenerationManifest {
+
+    public static final String FILE_NAME = ".jpa-generator.manifest";
+
+    private static final String TABLE = "table";
+    private static final String FILE = "file";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Path baseDir;
+    private final Path manifestFile;
+
+    private final Map<String, String> schemaHashes = new TreeMap<String, String>();
+    private final Map<String, Map<String, String>> outputHashes = new TreeMap<String, Map<String, String>>();
+    private final Set<String> seen = new HashSet<String>();
+
+    public GenerationManifest(File baseDir) {
+        this(baseDir.toPath());
+    }
+
+    public GenerationManifest(Path baseDir) {
+        this.baseDir = baseDir.toAbsolutePath();
+        this.manifestFile = this.baseDir.resolve(FILE_NAME);
+    }
+
+    public synchronized void load() throws IOException {
+        schemaHashes.clear();
+        outputHashes.clear();
+        seen.clear();
+        if (!Files.exists(manifestFile))
+            return;
+
+        BufferedReader in = Files.newBufferedReader(manifestFile, UTF_8);
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.length() == 0 || line.startsWith("#"))
+                    continue;
+                String[] tokens = line.split(" ", 4);
+                if (TABLE.equals(tokens[0]) && tokens.length == 3) {
+                    schemaHashes.put(tokens[1], tokens[2]);
+                } else if (FILE.equals(tokens[0]) && tokens.length == 4) {
+                    outputsOf(tokens[1]).put(tokens[3], tokens[2]);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    public synchronized void save() throws IOException {
+        PrintWriter out = new PrintWriter(Files.newBufferedWriter(manifestFile, UTF_8));
+        try {
+            out.println("# generated by JPACodeGenerator, do not edit");
+            for (Map.Entry<String, String> table : schemaHashes.entrySet()) {
+                out.println(TABLE + " " + table.getKey() + " " + table.getValue());
+                Map<String, String> outputs = outputHashes.get(table.getKey());
+                if (outputs == null)
+                    continue;
+                for (Map.Entry<String, String> output : outputs.entrySet()) {
+                    out.println(FILE + " " + table.getKey() + " " + output.getValue() + " " + output.getKey());
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * True when the class was last generated from the same schema hash and all of its files are
+     * still there.
+     */
+    public synchronized boolean isUpToDate(String className, String schemaHash) {
+        if (!schemaHash.equals(schemaHashes.get(className)))
+            return false;
+        Map<String, String> outputs = outputHashes.get(className);
+        if (outputs == null || outputs.isEmpty())
+            return false;
+        for (String path : outputs.keySet()) {
+            if (!Files.isRegularFile(baseDir.resolve(path)))
+                return false;
+        }
+        return true;
+    }
+
+    public synchronized void markSeen(String className) {
+        seen.add(className);
+    }
+
+    /**
+     * Hash recorded for the file the last time it was written, or null.
+     */
+    public synchronized String getOutputHash(String className, String path) {
+        Map<String, String> outputs = outputHashes.get(className);
+        return outputs == null ? null : outputs.get(relativize(path));
+    }
+
+    public synchronized void record(String className, String schemaHash, Map<String, String> outputs) {
+        seen.add(className);
+        schemaHashes.put(className, schemaHash);
+        Map<String, String> relativeOutputs = new TreeMap<String, String>();
+        for (Map.Entry<String, String> output : outputs.entrySet()) {
+            relativeOutputs.put(relativize(output.getKey()), output.getValue());
+        }
+        outputHashes.put(className, relativeOutputs);
+    }
+
+    /**
+     * Deletes the files of every class that was not generated or marked seen since load() and
+     * forgets about them. Returns the deleted files.
+     */
+    public synchronized List<Path> removeStale() throws IOException {
+        List<Path> removed = new ArrayList<Path>();
+        Iterator<String> classNames = schemaHashes.keySet().iterator();
+        while (classNames.hasNext()) {
+            String className = classNames.next();
+            if (seen.contains(className))
+                continue;
+            Map<String, String> outputs = outputHashes.remove(className);
+            if (outputs != null) {
+                for (String path : outputs.keySet()) {
+                    Path file = baseDir.resolve(path);
+                    if (Files.deleteIfExists(file))
+                        removed.add(file);
+                }
+            }
+            classNames.remove();
+        }
+        return removed;
+    }
+
+    private Map<String, String> outputsOf(String className) {
+        Map<String, String> outputs = outputHashes.get(className);
+        if (outputs == null) {
+            outputs = new TreeMap<String, String>();
+            outputHashes.put(className, outputs);
+        }
+        return outputs;
+    }
+
+    private String relativize(String path) {
+        Path absolutePath = baseDir.getFileSystem().getPath(path).toAbsolutePath();
+        if (!absolutePath.startsWith(baseDir))
+            return absolutePath.toString();
+        StringBuilder relative = new StringBuilder();
+        for (Path name : baseDir.relativize(absolutePath)) {
+            if (relative.length() > 0)
+                relative.append('/');
+            relative.append(name);
+        }
+        return relative.toString();
+    }
+
+    public static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+
+    public static String hash(String text) {
+        return hash(text.getBytes(UTF_8));
+    }
+}
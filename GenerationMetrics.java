@@ -0,0 +1,272 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The phase timings of a generator run together with the time, allocated memory and written bytes
+ * of every column family, broken down into the stages schema write, parse, render and file write.
+ *
+ * SchemaFileGenerator, CassandraDataTypeMapper and JPACodeGenerator record stages when given the
+ * same instance with setMetrics(). A stage is started with start() on the thread doing the work
+ * and ended with Stage.end(); a stage started inside another one is not counted in the outer one,
+ * so the render time of a column family does not include writing its files. Stages started without
+ * a column family belong to the enclosing stage's column family, or to the support classes.
+ *
+ * print() adds the slowest column families to the phase table; writeReport() writes all of it as
+ * JSON.
+ */
+public class GenerationMetrics extends PhaseTimings {
+
+    public static final String SCHEMA_WRITE = "schema write";
+    public static final String PARSE = "parse";
+    public static final String RENDER = "render";
+    public static final String FILE_WRITE = "file write";
+
+    static final String SUPPORT_CLASSES = "(support classes)";
+
+    private static final int SLOWEST_TABLES = 10;
+
+    private static final Stage NONE = new Stage(null, null, null, null);
+
+    private final ConcurrentHashMap<String, TableMetrics> tables = new ConcurrentHashMap<String, TableMetrics>();
+    private final ThreadLocal<Stage> current = new ThreadLocal<Stage>();
+    private final Thread owner = Thread.currentThread();
+
+    // prefixes the column families of one of several keyspaces
+    private volatile String keyspace;
+
+    /**
+     * One stage of one column family in progress.
+     */
+    public static class Stage {
+        private final GenerationMetrics metrics;
+        private final String table;
+        private final String name;
+        private final Stage parent;
+        private final long startNanos;
+        private final long startAllocated;
+        private long childNanos;
+        private long childAllocated;
+        private long bytesWritten;
+        private int filesWritten;
+
+        private Stage(GenerationMetrics metrics, String table, String name, Stage parent) {
+            this.metrics = metrics;
+            this.table = table;
+            this.name = name;
+            this.parent = parent;
+            this.startAllocated = metrics == null ? 0 : allocatedBytes();
+            this.startNanos = metrics == null ? 0 : System.nanoTime();
+        }
+
+        public void addFileWritten(long bytes) {
+            bytesWritten += bytes;
+            filesWritten++;
+        }
+
+        public void end() {
+            if (metrics == null)
+                return;
+            long nanos = System.nanoTime() - startNanos;
+            long allocated = startAllocated < 0 ? -1 : allocatedBytes() - startAllocated;
+            metrics.end(this, nanos, allocated);
+        }
+    }
+
+    private static class TableMetrics {
+        private final String name;
+        // stage name to nanos, allocated bytes, count
+        private final Map<String, long[]> stages = new LinkedHashMap<String, long[]>();
+        private long nanos;
+        private long allocated;
+        private long bytesWritten;
+        private int filesWritten;
+
+        private TableMetrics(String name) {
+            this.name = name;
+        }
+
+        private synchronized void add(Stage stage, long nanos, long allocated) {
+            long[] totals = stages.get(stage.name);
+            if (totals == null) {
+                totals = new long[3];
+                stages.put(stage.name, totals);
+            }
+            totals[0] += nanos;
+            totals[1] = totals[1] < 0 || allocated < 0 ? -1 : totals[1] + allocated;
+            totals[2]++;
+            this.nanos += nanos;
+            this.allocated = this.allocated < 0 || allocated < 0 ? -1 : this.allocated + allocated;
+            bytesWritten += stage.bytesWritten;
+            filesWritten += stage.filesWritten;
+        }
+
+        private synchronized long stageNanos(String stage) {
+            long[] totals = stages.get(stage);
+            return totals == null ? 0 : totals[0];
+        }
+    }
+
+    /**
+     * Starts a stage of table on the current thread; table null for the column family of the
+     * enclosing stage. metrics may be null, then nothing is recorded.
+     */
+    public static Stage start(GenerationMetrics metrics, String table, String stage) {
+        return metrics == null ? NONE : metrics.start(table, stage);
+    }
+
+    public Stage start(String table, String stage) {
+        Stage parent = current.get();
+        if (table == null)
+            table = parent != null ? parent.table : SUPPORT_CLASSES;
+        else if (keyspace != null)
+            table = keyspace + "." + table;
+        Stage started = new Stage(this, table, stage, parent);
+        current.set(started);
+        return started;
+    }
+
+    private void end(Stage stage, long nanos, long allocated) {
+        if (stage.parent == null) {
+            current.remove();
+            if (Thread.currentThread() != owner)
+                addAllocated(allocated);
+        } else {
+            current.set(stage.parent);
+            stage.parent.childNanos += nanos;
+            if (allocated >= 0)
+                stage.parent.childAllocated += allocated;
+        }
+
+        TableMetrics table = tables.get(stage.table);
+        if (table == null) {
+            tables.putIfAbsent(stage.table, new TableMetrics(stage.table));
+            table = tables.get(stage.table);
+        }
+        table.add(stage, nanos - stage.childNanos, allocated < 0 ? -1 : allocated - stage.childAllocated);
+    }
+
+    /**
+     * Column families recorded from now on are reported as keyspace.columnFamily; null to stop.
+     */
+    public void setKeyspace(String keyspace) {
+        this.keyspace = keyspace;
+    }
+
+    private List<TableMetrics> slowestFirst() {
+        List<TableMetrics> sorted = new ArrayList<TableMetrics>(tables.values());
+        Collections.sort(sorted, new Comparator<TableMetrics>() {
+            @Override
+            public int compare(TableMetrics a, TableMetrics b) {
+                return a.nanos < b.nanos ? 1 : a.nanos > b.nanos ? -1 : a.name.compareTo(b.name);
+            }
+        });
+        return sorted;
+    }
+
+    @Override
+    public void print(PrintStream out) {
+        super.print(out);
+        if (tables.isEmpty())
+            return;
+
+        List<TableMetrics> sorted = slowestFirst();
+        long bytesWritten = 0;
+        for (TableMetrics table : sorted) {
+            bytesWritten += table.bytesWritten;
+        }
+        out.println();
+        out.println(String.format("%d column families, %.1f MB written; slowest:", sorted.size(),
+                bytesWritten / (1024.0 * 1024.0)));
+        out.println(String.format("%-32s %9s %9s %9s %9s %9s %12s", "column family", "ms", "parse", "render",
+                "write", "KB", "MB allocated"));
+        for (TableMetrics table : sorted.subList(0, Math.min(SLOWEST_TABLES, sorted.size()))) {
+            out.println(String.format("%-32s %9.1f %9.1f %9.1f %9.1f %9d %12s", table.name, table.nanos / 1e6,
+                    table.stageNanos(PARSE) / 1e6, table.stageNanos(RENDER) / 1e6, table.stageNanos(FILE_WRITE) / 1e6,
+                    table.bytesWritten / 1024, megabytes(table.allocated)));
+        }
+    }
+
+    public void writeReport(File file) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writeReport(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the phases and the column families, slowest first, as JSON. Times of phases are in
+     * milliseconds, of column families in fractional milliseconds; allocated bytes are null where
+     * the JVM does not count allocation.
+     */
+    public void writeReport(Writer out) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"totalMillis\": ").append(getTotalMillis()).append(",\n  \"phases\": [");
+        for (int i = 0; i < phases.size(); i++) {
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"name\": ").append(quote(phases.get(i)));
+            json.append(", \"millis\": ").append(millis.get(i));
+            json.append(", \"allocatedBytes\": ").append(bytes(allocated.get(i))).append('}');
+        }
+        json.append("\n  ],\n  \"columnFamilies\": [");
+
+        boolean first = true;
+        for (TableMetrics table : slowestFirst()) {
+            synchronized (table) {
+                json.append(first ? "\n" : ",\n");
+                first = false;
+                json.append("    {\"name\": ").append(quote(table.name));
+                json.append(", \"millis\": ").append(millis(table.nanos));
+                json.append(", \"allocatedBytes\": ").append(bytes(table.allocated));
+                json.append(", \"bytesWritten\": ").append(table.bytesWritten);
+                json.append(", \"filesWritten\": ").append(table.filesWritten);
+                json.append(",\n      \"stages\": {");
+                boolean firstStage = true;
+                for (Map.Entry<String, long[]> stage : table.stages.entrySet()) {
+                    json.append(firstStage ? "" : ", ");
+                    firstStage = false;
+                    json.append(quote(stage.getKey())).append(": {\"millis\": ").append(millis(stage.getValue()[0]));
+                    json.append(", \"allocatedBytes\": ").append(bytes(stage.getValue()[1]));
+                    json.append(", \"count\": ").append(stage.getValue()[2]).append('}');
+                }
+                json.append("}}");
+            }
+        }
+        json.append("\n  ]\n}\n");
+        out.write(json.toString());
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String bytes(long bytes) {
+        return bytes < 0 ? "null" : String.valueOf(bytes);
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\')
+                quoted.append('\\').append(c);
+            else if (c < ' ')
+                quoted.append(String.format("\\u%04x", (int) c));
+            else
+                quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+}
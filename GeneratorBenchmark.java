@@ -0,0 +1,244 @@
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.*;
+
+/**
+ * Measures the three stages of the generator on synthetic keyspaces, without a cluster:
+ *
+ *  schema write  ColumnFamilySchema to CQL text, as SchemaFileGenerator writes the *.db files
+ *  parse         CQL text back to the column map, as CassandraDataTypeMapper.mapDataTypes does
+ *  render        JPACodeGenerator.generateCode into a temporary directory
+ *
+ * For every stage it prints column families per second, megabytes per second of text produced or
+ * consumed and bytes allocated per column family (from the thread allocation counters, the same
+ * numbers a GC profiler and GenerationMetrics report, n/a where the JVM does not count them).
+ *
+ * Usage: GeneratorBenchmark [-tables 10,1000,10000] [-columns 5,500,5000] [-warmup 3] [-iterations 5]
+ */
+public class GeneratorBenchmark {
+
+    private static final String MARSHAL = "org.apache.cassandra.db.marshal.";
+    private static final String[] VALIDATION_CLASSES = {MARSHAL + "UTF8Type", MARSHAL + "DateType",
+            MARSHAL + "DecimalType", MARSHAL + "LongType", MARSHAL + "BooleanType"};
+
+    private interface Stage {
+        /**
+         * Runs the stage once over the whole keyspace.
+         */
+        void run() throws Exception;
+
+        /**
+         * The number of bytes the last run produced or consumed. Called once the run is timed, so
+         * that counting them, such as walking the output directory, is not measured with it.
+         */
+        long bytes() throws Exception;
+    }
+
+    private int[] tableCounts = {10, 1000};
+    private int[] columnCounts = {5, 500};
+    private int warmupIterations = 3;
+    private int iterations = 5;
+
+    public static void main(String[] args) throws Exception {
+        GeneratorBenchmark benchmark = new GeneratorBenchmark();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("-tables"))
+                benchmark.tableCounts = parseList(args[i + 1]);
+            else if (args[i].equals("-columns"))
+                benchmark.columnCounts = parseList(args[i + 1]);
+            else if (args[i].equals("-warmup"))
+                benchmark.warmupIterations = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("-iterations"))
+                benchmark.iterations = Integer.parseInt(args[i + 1]);
+            else
+                throw new IllegalArgumentException("unknown option " + args[i]);
+        }
+        benchmark.run();
+    }
+
+    public void run() throws Exception {
+        System.out.println(String.format("%-13s %7s %7s %12s %10s %14s",
+                "stage", "tables", "columns", "tables/s", "MB/s", "alloc B/table"));
+        for (int tables : tableCounts) {
+            for (int columns : columnCounts) {
+                run(tables, columns);
+            }
+        }
+    }
+
+    private void run(int tables, int columns) throws Exception {
+        final List<ColumnFamilySchema> keyspace = syntheticKeyspace(tables, columns);
+        final SchemaFileGenerator schemaFileGenerator = new SchemaFileGenerator(null);
+        final CassandraDataTypeMapper mapper = new CassandraDataTypeMapper();
+
+        final List<String> schemaTexts = new ArrayList<String>(tables);
+        long schemaBytes = 0;
+        for (ColumnFamilySchema schema : keyspace) {
+            StringWriter text = new StringWriter();
+            PrintWriter out = new PrintWriter(text);
+            schemaFileGenerator.writeSchema(schema, out);
+            out.close();
+            schemaTexts.add(text.toString());
+            schemaBytes += text.getBuffer().length();
+        }
+        // schema write produces the texts parse consumes, the same every run
+        final long schemaTextBytes = schemaBytes;
+
+        report("schema write", tables, columns, measure(new Stage() {
+            @Override
+            public void run() throws Exception {
+                for (ColumnFamilySchema schema : keyspace) {
+                    StringWriter text = new StringWriter();
+                    PrintWriter out = new PrintWriter(text);
+                    schemaFileGenerator.writeSchema(schema, out);
+                    out.close();
+                }
+            }
+
+            @Override
+            public long bytes() {
+                return schemaTextBytes;
+            }
+        }));
+
+        report("parse", tables, columns, measure(new Stage() {
+            @Override
+            public void run() throws Exception {
+                for (int i = 0; i < schemaTexts.size(); i++) {
+                    new CqlTableParser(new StringReader(schemaTexts.get(i)), keyspace.get(i).getName()).parse();
+                }
+            }
+
+            @Override
+            public long bytes() {
+                return schemaTextBytes;
+            }
+        }));
+
+        final File outDirectory = createTempDirectory();
+        try {
+            final JPACodeGenerator codeGenerator = new JPACodeGenerator("benchmark", outDirectory.getPath());
+            final List<Map<String, String>> maps = new ArrayList<Map<String, String>>(tables);
+            final List<String> classNames = new ArrayList<String>(tables);
+            for (ColumnFamilySchema schema : keyspace) {
+                Map<String, String> map = mapper.mapDataTypes(schema);
+                classNames.add(CassandraDataTypeMapper.toClassName(map.remove(CassandraDataTypeMapper.CLASSNAME)));
+                maps.add(map);
+            }
+
+            report("render", tables, columns, measure(new Stage() {
+                @Override
+                public void run() throws Exception {
+                    for (int i = 0; i < maps.size(); i++) {
+                        codeGenerator.generateCode(maps.get(i), classNames.get(i));
+                    }
+                }
+
+                @Override
+                public long bytes() {
+                    return size(outDirectory);
+                }
+            }));
+        } finally {
+            delete(outDirectory);
+        }
+    }
+
+    /**
+     * Returns {seconds per iteration, bytes per iteration, allocated bytes per iteration}, averaged
+     * over the measured iterations; allocated bytes are -1 where the JVM does not count them.
+     */
+    private double[] measure(Stage stage) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            stage.run();
+        }
+
+        long bytes = 0;
+        long allocated = 0;
+        long nanos = 0;
+        for (int i = 0; i < iterations; i++) {
+            long allocatedBefore = PhaseTimings.allocatedBytes();
+            long start = System.nanoTime();
+            stage.run();
+            nanos += System.nanoTime() - start;
+            allocated = allocated < 0 || allocatedBefore < 0 ? -1 : allocated + PhaseTimings.allocatedBytes() - allocatedBefore;
+            bytes += stage.bytes();
+        }
+        return new double[]{nanos / 1e9 / iterations, (double) bytes / iterations,
+                allocated < 0 ? -1 : (double) allocated / iterations};
+    }
+
+    private void report(String stage, int tables, int columns, double[] result) {
+        double seconds = result[0];
+        System.out.println(String.format("%-13s %7d %7d %12.1f %10.1f %14s",
+                stage, tables, columns, tables / seconds, result[1] / seconds / (1024 * 1024),
+                result[2] < 0 ? "n/a" : String.format("%.0f", result[2] / tables)));
+    }
+
+    static List<ColumnFamilySchema> syntheticKeyspace(int tables, int columns) {
+        Map<String, String> compression = new HashMap<String, String>();
+        compression.put("sstable_compression", "org.apache.cassandra.io.compress.SnappyCompressor");
+
+        List<ColumnFamilySchema> keyspace = new ArrayList<ColumnFamilySchema>(tables);
+        for (int i = 0; i < tables; i++) {
+            ColumnFamilySchema schema = new ColumnFamilySchema("benchmark_table_" + i);
+            schema.setKeyValidationClass(MARSHAL + "UTF8Type");
+            for (int j = 0; j < columns; j++) {
+                schema.addColumn("column_" + j, VALIDATION_CLASSES[j % VALIDATION_CLASSES.length]);
+            }
+            schema.setBloomFilterFpChance(0.01);
+            schema.setCaching("KEYS_ONLY");
+            schema.setComment("");
+            schema.setLocalReadRepairChance(0.0);
+            schema.setGcGraceSeconds(864000);
+            schema.setReadRepairChance(0.1);
+            schema.setReplicateOnWrite(Boolean.TRUE);
+            schema.setPopulateIoCacheOnFlush(Boolean.FALSE);
+            schema.setCompactionStrategy("org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy");
+            schema.setCompressionOptions(compression);
+            keyspace.add(schema);
+        }
+        return keyspace;
+    }
+
+    private static File createTempDirectory() throws Exception {
+        File directory = File.createTempFile("generator-benchmark", "");
+        if (!directory.delete() || !directory.mkdir())
+            throw new IllegalStateException("could not create " + directory);
+        return directory;
+    }
+
+    private static long size(File file) {
+        if (file.isFile())
+            return file.length();
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += size(child);
+            }
+        }
+        return size;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static int[] parseList(String value) {
+        String[] tokens = value.split(",");
+        int[] values = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            values[i] = Integer.parseInt(tokens[i].trim());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Runs the generator like JPAClassGeneratorRunner, but wires SchemaFileGenerator,
+ * CassandraDataTypeMapper and JPACodeGenerator itself instead of starting a Spring context, and
+ * prints how long startup and every phase took.
+ *
+ * Configuration comes from a properties file and from name=value arguments, which override it.
+ * Names are the bean properties, prefixed with the bean they set:
+ *
+ *  schema.*          SchemaFileGenerator, e.g. schema.outDirectory, schema.seeds, schema.keyspaceName,
+ *                    schema.schemaSnapshot and schema.offline to generate without a cluster
+ *  mapper.*          CassandraDataTypeMapper, e.g. mapper.parallelism
+ *  code.*            JPACodeGenerator, e.g. code.packageName, code.outDirectory, code.incremental
+ *  schemaDirectory   where the schema files are read from; defaults to where they are written
+ *
+ * Lists are comma separated, maps are comma separated name:value pairs.
+ *
+ * With -metrics, the phase timings and the time, allocation and output of every column family are
+ * also written to the given file as JSON, see GenerationMetrics.
+ *
+ * Usage: GeneratorCli [-config generator.properties] [-direct] [-metrics report.json] [name=value ...]
+ */
+public class GeneratorCli {
+
+    public static void main(String[] args) throws Exception {
+        GenerationMetrics timings = new GenerationMetrics();
+
+        Properties properties = new Properties();
+        boolean direct = false;
+        File report = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-config"))
+                load(properties, new File(args[++i]));
+            else if (args[i].equals("-direct"))
+                direct = true;
+            else if (args[i].equals("-metrics"))
+                report = new File(args[++i]);
+            else if (args[i].indexOf('=') > 0)
+                properties.setProperty(args[i].substring(0, args[i].indexOf('=')), args[i].substring(args[i].indexOf('=') + 1));
+            else
+                throw new IllegalArgumentException("unknown option " + args[i]);
+        }
+
+        SchemaFileGenerator schemaFileGenerator = new SchemaFileGenerator(properties.getProperty("schema.outDirectory"));
+        JPACodeGenerator codeGenerator = new JPACodeGenerator(properties.getProperty("code.packageName"),
+                properties.getProperty("code.outDirectory"));
+        CassandraDataTypeMapper generator = new CassandraDataTypeMapper();
+        generator.setCodeGenerator(codeGenerator);
+        schemaFileGenerator.setMetrics(timings);
+        generator.setMetrics(timings);
+        codeGenerator.setMetrics(timings);
+
+        for (String name : properties.stringPropertyNames()) {
+            // constructor arguments
+            if (name.equals("schema.outDirectory") || name.equals("code.outDirectory") || name.equals("code.packageName"))
+                continue;
+            if (name.startsWith("schema."))
+                setProperty(schemaFileGenerator, name.substring("schema.".length()), properties.getProperty(name));
+            else if (name.startsWith("mapper."))
+                setProperty(generator, name.substring("mapper.".length()), properties.getProperty(name));
+            else if (name.startsWith("code."))
+                setProperty(codeGenerator, name.substring("code.".length()), properties.getProperty(name));
+            else if (!name.equals("schemaDirectory"))
+                throw new IllegalArgumentException("unknown property " + name);
+        }
+        timings.mark("wiring");
+
+        schemaFileGenerator.init();
+        timings.mark("connect");
+
+        try {
+            if (!schemaFileGenerator.getKeyspaceNames().isEmpty()) {
+                Map<String, List<ColumnFamilySchema>> keyspaces = schemaFileGenerator.describeKeyspaces();
+                timings.mark("describe");
+
+                for (Map.Entry<String, List<ColumnFamilySchema>> keyspace : keyspaces.entrySet()) {
+                    try {
+                        JPAClassGeneratorRunner.generateKeyspace(schemaFileGenerator, generator, keyspace.getKey(),
+                                keyspace.getValue(), direct);
+                    } catch (Exception ex) {
+                        System.err.println("failed to generate keyspace " + keyspace.getKey());
+                        ex.printStackTrace();
+                    }
+                    timings.mark("generate " + keyspace.getKey());
+                }
+            } else {
+                List<ColumnFamilySchema> schemas = schemaFileGenerator.describeColumnFamilies();
+                timings.mark("describe");
+
+                if (!direct || schemaFileGenerator.isWriteSchemaFiles()) {
+                    schemaFileGenerator.writeSchemaFiles(schemas);
+                    timings.mark("write schema files");
+                }
+
+                try {
+                    if (direct)
+                        generator.generate(schemas);
+                    else
+                        generator.generate(schemaDirectory(properties, schemaFileGenerator));
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+                timings.mark("generate");
+            }
+        } finally {
+            schemaFileGenerator.shutdown();
+        }
+        timings.mark("shutdown");
+
+        timings.print(System.out);
+        if (report != null)
+            timings.writeReport(report);
+    }
+
+    private static File schemaDirectory(Properties properties, SchemaFileGenerator schemaFileGenerator) {
+        String schemaDirectory = properties.getProperty("schemaDirectory");
+        if (schemaDirectory != null)
+            return new File(schemaDirectory);
+        return new File(schemaFileGenerator.outDirectory + File.separator + "main" + File.separator + "resources"
+                + File.separator + "schema");
+    }
+
+    private static void load(Properties properties, File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Sets a bean property from its text, the way Spring does for the simple property types the
+     * generator beans have.
+     */
+    static void setProperty(Object bean, String name, String value) {
+        String setter = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (Method method : bean.getClass().getMethods()) {
+            if (!method.getName().equals(setter) || method.getParameterTypes().length != 1)
+                continue;
+
+            Object converted = convert(method.getGenericParameterTypes()[0], value.trim());
+            if (converted == null)
+                continue;
+            try {
+                method.invoke(bean, converted);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("failed to set " + name + " to " + value, e);
+            }
+            return;
+        }
+        throw new IllegalArgumentException(bean.getClass().getSimpleName() + " has no property " + name);
+    }
+
+    private static Object convert(Type type, String value) {
+        if (type == String.class)
+            return value;
+        if (type == int.class || type == Integer.class)
+            return Integer.valueOf(value);
+        if (type == long.class || type == Long.class)
+            return Long.valueOf(value);
+        if (type == double.class || type == Double.class)
+            return Double.valueOf(value);
+        if (type == boolean.class || type == Boolean.class)
+            return Boolean.valueOf(value);
+        if (!(type instanceof ParameterizedType))
+            return null;
+
+        ParameterizedType parameterized = (ParameterizedType) type;
+        Type[] arguments = parameterized.getActualTypeArguments();
+        if (parameterized.getRawType() == List.class) {
+            List<Object> list = new ArrayList<Object>();
+            for (String element : split(value)) {
+                list.add(convert(arguments[0], element));
+            }
+            return list;
+        }
+        if (parameterized.getRawType() == Map.class) {
+            Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+            for (String entry : split(value)) {
+                int colon = entry.lastIndexOf(':');
+                if (colon < 0)
+                    throw new IllegalArgumentException("expected name:value, not " + entry);
+                map.put(convert(arguments[0], entry.substring(0, colon).trim()),
+                        convert(arguments[1], entry.substring(colon + 1).trim()));
+            }
+            return map;
+        }
+        return null;
+    }
+
+    private static List<String> split(String value) {
+        List<String> elements = new ArrayList<String>();
+        for (String element : Arrays.asList(value.split(","))) {
+            if (element.trim().length() > 0)
+                elements.add(element.trim());
+        }
+        return elements;
+    }
+}
@@ -3,9 +3,19 @@ import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.core.io.Resource;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 //Initiates SchemaFileGenerator, CassandraDataTypeMapper, JPACodeGenerator
+//Pass --direct to generate from the described column families without re-reading the schema files
+//When the schemaCodeGenerator bean lists keyspaceNames, all of them are generated in this one run
+//Pass --watch to keep running and regenerate when the cluster schema changes, or --watch-files to
+//regenerate when the schema files change; --poll-millis=N sets how often either polls
+//Prints how long startup and each phase took and the slowest column families; GeneratorCli does the
+//same without Spring. Pass --metrics=report.json to also write them as JSON
 
 public class JPAClassGeneratorRunner {
 
@@ -16,13 +26,56 @@ public class JPAClassGeneratorRunner {
 
     public static void main(String[] args) throws Exception {
 
+        GenerationMetrics timings = new GenerationMetrics();
+
         ApplicationContext context = getApplicationContext();
+        timings.mark("spring context");
 
         SchemaFileGenerator schemaFileGenerator = (SchemaFileGenerator) context.getBean("schemaCodeGenerator");
+        CassandraDataTypeMapper mapper = (CassandraDataTypeMapper) context.getBean("jPAClassGenerator");
+        schemaFileGenerator.setMetrics(timings);
+        mapper.setMetrics(timings);
+        mapper.getCodeGenerator().setMetrics(timings);
+
+        if (Arrays.asList(args).contains("--watch-files")) {
+            watch(context, schemaFileGenerator, args).watchDirectory(context.getResource("classpath:/schema").getFile());
+            return;
+        }
 
         schemaFileGenerator.init();
+        timings.mark("connect");
+
+        if (Arrays.asList(args).contains("--watch")) {
+            try {
+                watch(context, schemaFileGenerator, args).watchCluster();
+            } finally {
+                schemaFileGenerator.shutdown();
+            }
+            return;
+        }
 
-        schemaFileGenerator.generateCode();
+        if (!schemaFileGenerator.getKeyspaceNames().isEmpty()) {
+            try {
+                generateKeyspaces(context, schemaFileGenerator, Arrays.asList(args).contains("--direct"), timings);
+            } finally {
+                schemaFileGenerator.shutdown();
+            }
+            timings.mark("generate");
+            report(timings, args);
+            return;
+        }
+
+        if (Arrays.asList(args).contains("--direct")) {
+            generateDirect(context, schemaFileGenerator, timings);
+            timings.mark("generate");
+            report(timings, args);
+            return;
+        }
+
+        List<ColumnFamilySchema> schemas = schemaFileGenerator.describeColumnFamilies();
+        timings.mark("describe");
+        schemaFileGenerator.writeSchemaFiles(schemas);
+        timings.mark("write schema files");
 
         Resource resource = context.getResource("classpath:/schema");
 
@@ -35,8 +88,116 @@ public class JPAClassGeneratorRunner {
         } catch (Exception ex) {
             ex.printStackTrace();
         }
+        timings.mark("generate");
+        report(timings, args);
+
 
+    }
 
+    private static void report(GenerationMetrics timings, String[] args) throws IOException {
+        timings.print(System.out);
+        for (String arg : args) {
+            if (arg.startsWith("--metrics="))
+                timings.writeReport(new File(arg.substring("--metrics=".length())));
+        }
+    }
+
+    private static void generateDirect(ApplicationContext context, SchemaFileGenerator schemaFileGenerator,
+                                       PhaseTimings timings) {
+
+        List<ColumnFamilySchema> schemas = schemaFileGenerator.describeColumnFamilies();
+        timings.mark("describe");
+
+        if (schemaFileGenerator.isWriteSchemaFiles()) {
+            schemaFileGenerator.writeSchemaFiles(schemas);
+            timings.mark("write schema files");
+        }
+
+        CassandraDataTypeMapper generator = (CassandraDataTypeMapper) context.getBean("jPAClassGenerator");
+
+        try {
+            generator.generate(schemas);
+
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private static SchemaWatcher watch(ApplicationContext context, SchemaFileGenerator schemaFileGenerator,
+                                       String[] args) {
+
+        CassandraDataTypeMapper generator = (CassandraDataTypeMapper) context.getBean("jPAClassGenerator");
+
+        SchemaWatcher watcher = new SchemaWatcher(schemaFileGenerator, generator);
+        for (String arg : args) {
+            if (arg.startsWith("--poll-millis="))
+                watcher.setPollIntervalMillis(Long.parseLong(arg.substring("--poll-millis=".length())));
+        }
+        return watcher;
+    }
+
+    /**
+     * Describes all keyspaces at once, then generates them one after another, each into its own
+     * directory and package as laid out by the SchemaFileGenerator.
+     */
+    private static void generateKeyspaces(ApplicationContext context, SchemaFileGenerator schemaFileGenerator,
+                                          boolean direct, PhaseTimings timings) {
+
+        Map<String, List<ColumnFamilySchema>> keyspaces = schemaFileGenerator.describeKeyspaces();
+        timings.mark("describe");
+
+        CassandraDataTypeMapper generator = (CassandraDataTypeMapper) context.getBean("jPAClassGenerator");
+
+        for (Map.Entry<String, List<ColumnFamilySchema>> keyspace : keyspaces.entrySet()) {
+            try {
+                generateKeyspace(schemaFileGenerator, generator, keyspace.getKey(), keyspace.getValue(), direct);
+            } catch (Exception ex) {
+                System.err.println("failed to generate keyspace " + keyspace.getKey());
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Generates one of several keyspaces into its directory and package, from the described column
+     * families when direct, else from the schema files written for it.
+     */
+    static void generateKeyspace(SchemaFileGenerator schemaFileGenerator, CassandraDataTypeMapper generator,
+                                 String name, List<ColumnFamilySchema> schemas, boolean direct) throws JPAGenerationException {
+
+        JPACodeGenerator codeGenerator = generator.getCodeGenerator();
+        String outDirectory = codeGenerator.outDirectory;
+        String packageName = codeGenerator.getPackageName();
+        String sourcesJar = codeGenerator.getSourcesJar();
+        codeGenerator.outDirectory = schemaFileGenerator.keyspaceDirectory(outDirectory, name);
+        codeGenerator.setPackageName(schemaFileGenerator.keyspacePackage(packageName, name));
+        if (sourcesJar != null) {
+            // a jar per keyspace, laid out like the directories
+            File jar = new File(sourcesJar).getAbsoluteFile();
+            codeGenerator.setSourcesJar(schemaFileGenerator.keyspaceDirectory(jar.getParent(), name)
+                    + File.separator + jar.getName());
+        }
+        GenerationMetrics metrics = generator.getMetrics();
+        if (metrics != null)
+            metrics.setKeyspace(name);
+        try {
+            if (!direct || schemaFileGenerator.isWriteSchemaFiles())
+                schemaFileGenerator.writeSchemaFiles(name, schemas);
+
+            if (direct) {
+                generator.generate(schemas);
+            } else {
+                String schemaDirectory = schemaFileGenerator.keyspaceDirectory(schemaFileGenerator.outDirectory, name)
+                        + File.separator + "main" + File.separator + "resources" + File.separator + "schema";
+                generator.generate(new File(schemaDirectory));
+            }
+        } finally {
+            codeGenerator.outDirectory = outDirectory;
+            codeGenerator.setPackageName(packageName);
+            codeGenerator.setSourcesJar(sourcesJar);
+            if (metrics != null)
+                metrics.setKeyspace(null);
+        }
     }
 
 
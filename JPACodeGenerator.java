@@ -1,24 +1,31 @@
 import org.apache.commons.lang.WordUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 public class JPACodeGenerator {
 
-    private static String[] types = {"text", "timestamp", "decimal", "bigint", "boolean"};
-    private static String[] javaTypes = {"String", "Date", "double", "int", "boolean"};
+    private static final Logger logger = LoggerFactory.getLogger(JPACodeGenerator.class);
+
+    // generated sources are written in UTF-8 whatever the platform charset, to a directory or a jar
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
-    private static final Map<String, Integer> typeMap = new HashMap<String, Integer>();
     public static final List<String> imports = new LinkedList<String>();
 
     static {
-        for (int i = 0; i < types.length; i++) {
-            typeMap.put(types[i], i);
-        }
-
         imports.add("import javax.persistence.Column;");
         imports.add("import javax.persistence.Entity;");
         imports.add("import javax.persistence.Id;");
@@ -29,169 +36,698 @@ public class JPACodeGenerator {
 
     public String outDirectory;
     private String packageName;
-    private List<String> variables;
-    private List<String> getterAndSetters;
-    private List<String> setterCalls;
+
+    /**
+     * When set, a manifest of schema and output hashes is kept in the output directory: column
+     * families whose definition did not change are skipped, files whose content did not change
+     * are not rewritten and the files of dropped column families are removed.
+     */
+    private boolean incremental;
+    private GenerationManifest manifest;
+
+    // part of every schema hash; raise it when the generated code changes, so that incremental
+    // runs regenerate column families whose definition did not change
+    private static final int OUTPUT_VERSION = 2;
+
+    // records how long writing each generated file took and how many bytes were written, when set
+    private GenerationMetrics metrics;
+
+    /**
+     * Directory of templates overriding the built-in ones per artifact, see TemplateEngine; null
+     * for the built-in output.
+     */
+    private String templateDirectory;
+    private TemplateEngine templates = new TemplateEngine();
+    private String templateFingerprint = "";
+
+    /**
+     * Where the generated sources go: outDirectory on outputFileSystem, the default file system
+     * when null. When sourcesJar is set they all go into that jar instead, kept in memory and
+     * written sequentially when the run ends.
+     */
+    private FileSystem outputFileSystem;
+    private String sourcesJar;
+    private FileSystem fileSystem = FileSystems.getDefault();
+    private FileSystem jarFileSystem;
+    private boolean directoriesCreated;
+
+    /**
+     * When set, every run compiles what it generated in memory before it is recorded as done,
+     * see GeneratedSourceVerifier; verifyClasspath holds the libraries the generated code uses,
+     * the generator's own class path when null.
+     */
+    private boolean verifyCompilation;
+    private String verifyClasspath;
+    private int verifyParallelism = 4;
+    private int verifyBatchSize = 20;
+    private GeneratedSourceVerifier verifier;
+
+    /**
+     * When set, the generated DAOs have saveInChunks() and deleteInChunks(), with these defaults:
+     * entities per mutation batch, chunks written at the same time and retries of a failed chunk.
+     */
+    private boolean bulkWrites = true;
+    private int bulkChunkSize = 100;
+    private int bulkParallelism = 4;
+    private int bulkMaxRetries = 2;
+
+    /**
+     * When set, the generated DAOs and services have getAsync(), saveAsync(), deleteAsync() and
+     * deleteByIdAsync(), with this default limit of asynchronous requests running at once; requests
+     * beyond it fail instead of waiting.
+     */
+    private boolean asyncDaos = true;
+    private int asyncMaxInFlight = 64;
+
+    /**
+     * When set, the generated DAOs and services have getPage() and iterateAll(), which read the
+     * column family one key range at a time.
+     */
+    private boolean pagedReads = true;
+
+    /**
+     * When set, the generated DAOs and services have multiGet() and the DAOs read get(ids) in key
+     * slices too, with these defaults: ids per key slice, slices read at the same time and
+     * milliseconds a slice may take (0 for no limit).
+     */
+    private boolean multiGets = true;
+    private int multiGetChunkSize = 100;
+    private int multiGetParallelism = 8;
+    private long multiGetTimeoutMillis = 10000;
+
+    /**
+     * Service classes that get a read-through cache: class name to maximum number of entities, and
+     * optionally class name to seconds an entity stays cached. Other classes are not cached.
+     */
+    private Map<String, Integer> entityCacheSizes = new HashMap<String, Integer>();
+    private Map<String, Long> entityCacheTtlSeconds = new HashMap<String, Long>();
+
+    /**
+     * When set, the generated DAOs read and write single entities, pages and bulk chunks through
+     * the generated codec instead of the reflective DefaultEntityManager, in the same column family.
+     */
+    private boolean useEntityCodecs;
+
+    /**
+     * When set, every data method of the generated DAOs records its latency, rows, bytes and
+     * failures in the generated DaoMetrics registry (JMX by default). Calls slower than the
+     * threshold are logged.
+     */
+    private boolean instrumentDaos;
+
+    /**
+     * When set, the generated DAOs and services have scanAll(), with these defaults: token ranges
+     * the ring is split into, ranges scanned at the same time and rows read per query.
+     */
+    private boolean tokenRangeScans = true;
+    private int scanSplits = 64;
+    private int scanParallelism = 8;
+    private int scanPageSize = 500;
+    private long slowCallThresholdMillis = 100;
+
+    /**
+     * Java type, serializer, test value and random value of every CQL column type.
+     */
+    private CqlTypeMapping typeMapping = new CqlTypeMapping();
+
+    /**
+     * Generation state of a single column family: the code snippets and the files written for it.
+     * A new instance is created for every generateCode() call so that several column families can
+     * be generated concurrently.
+     */
+    private static class EntityContext {
+        private final String className;
+        private final List<String> variables = new LinkedList<String>();
+        private final List<String> getterAndSetters = new LinkedList<String>();
+        private final List<String> setterCalls = new LinkedList<String>();
+        private final List<String> codecWrites = new LinkedList<String>();
+        private final List<String> codecReads = new LinkedList<String>();
+        private final List<String> codecColumns = new LinkedList<String>();
+        private final List<String> codecFields = new LinkedList<String>();
+        private final Set<String> codecImports = new TreeSet<String>();
+        private final Set<String> javaImports = new TreeSet<String>();
+        private final Set<String> fixtureImports = new TreeSet<String>();
+        private final List<String> randomSetters = new LinkedList<String>();
+        private final Map<String, String> outputs = new LinkedHashMap<String, String>();
+        private Map<String, Object> model;
+
+        private EntityContext(String className) {
+            this.className = className;
+        }
+    }
 
     public JPACodeGenerator(String packageName, String outDirectory) {
         this.packageName = packageName;
         this.outDirectory = outDirectory;
-        variables = new LinkedList<String>();
-        getterAndSetters = new LinkedList<String>();
-        setterCalls = new LinkedList<String>();
     }
 
+    /**
+     * Generates domain, dao, service and test classes for one column family. Safe to call from
+     * several threads at once as long as each call is for a different class name.
+     */
     public void generateCode(Map<String, String> dataMap, String className) {
 
         List<String> keyList = new ArrayList<String>(dataMap.keySet().size());
         keyList.addAll(dataMap.keySet());
         Collections.sort(keyList);
 
+        String schemaHash = null;
+        if (manifest != null) {
+            schemaHash = schemaHash(className, keyList, dataMap);
+            if (manifest.isUpToDate(className, schemaHash)) {
+                manifest.markSeen(className);
+                return;
+            }
+        }
+
+        EntityContext entity = new EntityContext(className);
         for (String key : keyList) {
             String value = dataMap.get(key);
-            generateSnippets(key, typeMap.get(value), className);
+            CqlTypeMapping.Type type = typeMapping.get(value);
+            if (type == null)
+                throw new IllegalArgumentException("no type mapping for column " + key + " of " + className + ": " + value);
+            generateSnippets(entity, key, type, className);
         }
 
-        File directory = new File(outDirectory);
+        createDirectories();
+        String root = outputRoot();
 
-        // Create domain, dao, impl directory
-        String mainPath = directory.getAbsolutePath() + File.separator + "main";
-        File mainDir = new File(mainPath);
-        if (!mainDir.exists())
-            mainDir.mkdir();
+        String mainPath = root + separator() + "main";
+        String domainPath = mainPath + separator() + "domain";
+        String daoPath = mainPath + separator() + "dao";
+        String daoImplPath = daoPath + separator() + "impl";
+        String servicePath = mainPath + separator() + "service";
+        String serviceImplPath = servicePath + separator() + "impl";
 
-        String domainPath = mainPath + File.separator + "domain";
-        File domainDir = new File(domainPath);
-        if (!domainDir.exists())
-            domainDir.mkdir();
+        String testPath = root + separator() + "test";
+        String domainTestPath = testPath + separator() + "domain";
+        String daoTestPath = testPath + separator() + "dao";
+        String serviceTestPath = testPath + separator() + "service";
+        String benchmarkPath = testPath + separator() + "benchmark";
 
+        String domainClassFilePath = domainPath + separator() + className + ".java";
+        generateDomainClass(entity, className, domainClassFilePath);
 
-        String daoPath = mainPath + File.separator + "dao";
-        File daoDir = new File(daoPath);
-        if (!daoDir.exists())
-            daoDir.mkdir();
+        String daoClassName = "I" + className + "Dao";
+        generateDaoInterface(entity, className, daoClassName, daoPath);
 
+        String daoImplClassName = className + "DaoImpl";
+        generateDaoImplClass(entity, className, daoImplPath, daoClassName, daoImplClassName);
+        generateCodecClass(entity, className, daoImplPath);
 
-        String daoImplPath = daoPath + File.separator + "impl";
-        File daoImplDir = new File(daoImplPath);
-        if (!daoImplDir.exists())
-            daoImplDir.mkdir();
+        String serviceClassName = "I" + className + "Service";
+        generateServiceInterface(entity, className, serviceClassName, servicePath);
 
-        String servicePath = mainPath + File.separator + "service";
-        File serviceDir = new File(servicePath);
-        if(!serviceDir.exists())
-            serviceDir.mkdir();
+        String serviceImplClassName = className + "ServiceImpl";
+        generateServiceImplClass(entity, className, serviceImplPath, serviceClassName, serviceImplClassName, daoClassName);
+
+        String domainTestFilePath = domainTestPath + separator() + className + "DomainTest.java";
+        generateDomainTest(entity, className, domainTestFilePath);
 
-        String serviceImplPath = servicePath + File.separator + "impl";
-        File serviceImplDir = new File(serviceImplPath);
-        if(!serviceImplDir.exists())
-            serviceImplDir.mkdir();
+        String daoTestFilePath = daoTestPath + separator() + className + "DaoTest.java";
+        generateDaoTest(entity, className, daoTestFilePath);
 
+        String serviceTestFilePath = serviceTestPath + separator() + className + "ServiceTest.java";
+        generateServiceTest(entity, className, serviceTestFilePath, serviceClassName);
 
-        String testPath = directory.getAbsolutePath() + File.separator + "test";
-        File testDir = new File(testPath);
-        if(!testDir.exists())
-            testDir.mkdir();
+        String benchmarkFilePath = benchmarkPath + separator() + className + "Benchmark.java";
+        generateBenchmark(entity, className, benchmarkFilePath);
 
-        String domainTestPath = testPath + File.separator + "domain";
-        File domainTestDir = new File(domainTestPath);
-        if(!domainTestDir.exists())
-            domainTestDir.mkdir();
+        String workloadFilePath = benchmarkPath + separator() + className + "Workload.java";
+        generateWorkload(entity, className, workloadFilePath);
 
+        if (manifest != null)
+            manifest.record(className, schemaHash, entity.outputs);
 
-        String daoTestPath = testPath + File.separator + "dao";
-        File daoTestDir = new File(daoTestPath);
-        if(!daoTestDir.exists())
-            daoTestDir.mkdir();
+    }
 
+    /**
+     * Called once before the column families of a run are generated. Loads the manifest when
+     * generating incrementally and writes the support classes the generated DAOs use.
+     */
+    public void beginRun() throws IOException {
+        openOutput();
+        verifier = verifyCompilation
+                ? new GeneratedSourceVerifier(packageName, verifyClasspath, verifyParallelism, verifyBatchSize) : null;
+
+        // overriding templates are read again every run, the built-in ones only once
+        templates = new TemplateEngine(templateDirectory == null ? null : new File(templateDirectory));
+        if (incremental) {
+            templateFingerprint = templates.fingerprint();
+            manifest = new GenerationManifest(fileSystem.getPath(outputRoot()));
+            manifest.load();
+        } else {
+            manifest = null;
+        }
 
-        String serviceTestPath = testPath + File.separator + "service";
-        File serviceTestDir = new File(serviceTestPath);
-        if(!serviceTestDir.exists())
-            serviceDir.mkdir();
+        generateSupportClasses();
+    }
 
+    /**
+     * Generates the classes shared by all generated DAOs, and their tests and benchmarks, of a run.
+     */
+    private void generateSupportClasses() throws IOException {
+        createDirectories();
+
+        String daoPath = outputRoot() + separator() + "main" + separator() + "dao";
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("packageName", packageName);
+        model.put("slowCallThresholdMillis", slowCallThresholdMillis);
+
+        writeSupportClass(daoPath, "ChunkResult", bulkWrites || multiGets, model);
+        writeSupportClass(daoPath, "BulkWriter", bulkWrites, model);
+        writeSupportClass(daoPath, "MultiGetResult", multiGets, model);
+        writeSupportClass(daoPath, "MultiGetter", multiGets, model);
+        writeSupportClass(daoPath, "Page", pagedReads || tokenRangeScans, model);
+        writeSupportClass(daoPath, "PagingIterator", pagedReads, model);
+        writeSupportClass(daoPath, "AsyncExecutor", usesAsyncExecutor(), model);
+        writeSupportClass(daoPath, "EntityCache", true, model);
+        for (String metricsClass : new String[]{"MetricsRegistry", "OperationMetricsMBean", "OperationMetrics",
+                "JmxMetricsRegistry", "DaoMetrics"}) {
+            writeSupportClass(daoPath, metricsClass, true, model);
+        }
+        for (String scanClass : new String[]{"RowCallback", "RangeResult", "ScanCheckpoint", "TokenRangeScanner"}) {
+            writeSupportClass(daoPath, scanClass, tokenRangeScans, model);
+        }
 
-        String domainClassFilePath = domainPath + File.separator + className + ".java";
-        generateDomainClass(className, domainClassFilePath);
+        String daoTestPath = outputRoot() + separator() + "test" + separator() + "dao";
+        writeSupportClass(daoTestPath, "InMemoryKeyspace", true, model);
 
-        String daoClassName = "I" + className + "Dao";
-        generateDaoInterface(className, daoClassName, daoPath);
+        String benchmarkPath = outputRoot() + separator() + "test" + separator() + "benchmark";
+        writeSupportClass(benchmarkPath, "WorkloadDriver", true, model);
+    }
 
-        String daoImplClassName = className + "DaoImpl";
-        generateDaoImplClass(className, daoImplPath, daoClassName, daoImplClassName);
+    /**
+     * Writes a support class from the template named after it, chunkResult for ChunkResult, or
+     * deletes it when the options of the run do not use it.
+     */
+    private void writeSupportClass(String directory, String className, boolean used, Map<String, Object> model)
+            throws IOException {
+        String path = directory + separator() + className + ".java";
+        if (used)
+            writeSource(null, path, templates.render(className.substring(0, 1).toLowerCase() + className.substring(1), model));
+        else
+            deleteSource(path);
+    }
 
-        String serviceClassName = "I" + className + "Service";
-        generateServiceInterface(className, serviceClassName, servicePath);
+    /**
+     * Opens the file system the run writes to: the sources jar, emptied unless generating
+     * incrementally, or outputFileSystem.
+     */
+    private void openOutput() throws IOException {
+        if (sourcesJar != null) {
+            File jar = new File(sourcesJar).getAbsoluteFile();
+            if (!incremental && jar.exists() && !jar.delete())
+                throw new IOException("failed to replace " + jar);
+            if (jar.getParentFile() != null)
+                jar.getParentFile().mkdirs();
+            Map<String, String> env = new HashMap<String, String>();
+            env.put("create", "true");
+            jarFileSystem = FileSystems.newFileSystem(URI.create("jar:" + jar.toURI()), env);
+            fileSystem = jarFileSystem;
+        } else {
+            fileSystem = outputFileSystem != null ? outputFileSystem : FileSystems.getDefault();
+        }
+        directoriesCreated = false;
+    }
 
-        String serviceImplClassName = className + "ServiceImpl";
-        generateServiceImplClass(className, serviceImplPath, serviceClassName, serviceImplClassName, daoClassName);
+    /**
+     * Closes the sources jar, which writes it out in one go. The file systems given with
+     * setOutputFileSystem() are left open.
+     */
+    private void closeOutput() throws IOException {
+        FileSystem jar = jarFileSystem;
+        jarFileSystem = null;
+        fileSystem = FileSystems.getDefault();
+        if (jar != null)
+            jar.close();
+    }
 
-        String domainTestFilePath = domainTestPath + File.separator + className + "DomainTest.java";
-        generateDomainTest(className, domainTestFilePath);
+    /**
+     * Compiles the sources generated in this run, when verifyCompilation is set, and returns the
+     * compiler errors by class name; empty when they compile.
+     */
+    public Map<String, List<String>> verifyRun() throws JPAGenerationException {
+        if (verifier == null)
+            return Collections.emptyMap();
+        try {
+            return verifier.verify();
+        } finally {
+            verifier = null;
+        }
+    }
 
-        String daoTestFilePath = daoTestPath + File.separator + className + "DaoTest.java";
-        generateDaoTest(className, daoTestFilePath);
+    /**
+     * Called instead of endRun() when a run failed: writes what was generated, as a run into a
+     * directory would have left it.
+     */
+    public void abortRun() {
+        try {
+            closeOutput();
+        } catch (IOException ex) {
+            logger.error("failed to close the output of the failed run", ex);
+        }
+    }
 
-        String serviceTestFilePath = serviceTestPath + File.separator + className + "ServiceTest.java";
-        generateServiceTest(className, serviceTestFilePath, serviceClassName);
+    /**
+     * The output directory on the output file system; the root of the sources jar.
+     */
+    private String separator() {
+        return fileSystem.getSeparator();
+    }
 
+    private String outputRoot() {
+        if (jarFileSystem != null)
+            return "";
+        return fileSystem.getPath(outDirectory).toAbsolutePath().toString();
+    }
 
+    /**
+     * Creates the directories of the generated classes, once per run rather than for every
+     * column family.
+     */
+    private synchronized void createDirectories() {
+        if (directoriesCreated)
+            return;
+        String root = outputRoot();
+        String[] directories = {"main/domain", "main/dao/impl", "main/service/impl",
+                "test/domain", "test/dao", "test/service", "test/benchmark"};
+        try {
+            for (String directory : directories) {
+                Files.createDirectories(fileSystem.getPath(root + separator() + directory.replace("/", separator())));
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("failed to create the output directories in " + root, ex);
+        }
+        directoriesCreated = true;
     }
 
+    /**
+     * Called once after all column families of a run were generated successfully. Removes the
+     * output of column families that no longer exist and saves the manifest.
+     */
+    public void endRun() throws IOException {
+        try {
+            if (manifest == null)
+                return;
+            for (Path removed : manifest.removeStale()) {
+                logger.info("removed " + removed);
+            }
+            manifest.save();
+        } finally {
+            closeOutput();
+        }
+    }
 
+    private String schemaHash(String className, List<String> keyList, Map<String, String> dataMap) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(OUTPUT_VERSION).append('\n');
+        sb.append(packageName).append('\n').append(className).append('\n');
+        sb.append(bulkWrites).append(' ').append(bulkChunkSize).append(' ').append(bulkParallelism).append(' ')
+                .append(bulkMaxRetries).append('\n');
+        sb.append(pagedReads).append('\n');
+        sb.append(tokenRangeScans).append(' ').append(scanSplits).append(' ').append(scanParallelism).append(' ').append(scanPageSize).append('\n');
+        sb.append(asyncDaos).append(' ').append(asyncMaxInFlight).append(' ').append(useEntityCodecs).append(' ').append(instrumentDaos).append('\n');
+        sb.append(multiGets).append(' ').append(multiGetChunkSize).append(' ').append(multiGetParallelism).append(' ').append(multiGetTimeoutMillis).append('\n');
+        sb.append(entityCacheSizes.get(className)).append(' ').append(entityCacheTtlSeconds.get(className)).append('\n');
+        sb.append(typeMapping.fingerprint());
+        sb.append(templateFingerprint).append('\n');
+        for (String key : keyList) {
+            sb.append(key).append(' ').append(dataMap.get(key)).append('\n');
+        }
+        return GenerationManifest.hash(sb.toString());
+    }
 
-    private void generateDaoImplClass(String className, String daoImplPath, String daoClassName, String daoImplClassName) {
-        String daoImplClassPath = daoImplPath + File.separator + daoImplClassName + ".java";
+    /**
+     * Writes a generated file. In incremental mode files whose content is unchanged are left
+     * untouched so that their timestamps do not trigger recompilation. entity is null for files
+     * that do not belong to a column family.
+     */
+    private void writeSource(EntityContext entity, String path, String content) throws IOException {
+        if (verifier != null)
+            verifier.add(entity == null ? null : entity.className, path, content);
+
+        byte[] bytes = content.getBytes(UTF_8);
+        String hash = manifest == null ? null : GenerationManifest.hash(bytes);
+        // support classes are not owned by a column family and are not recorded
+        if (entity != null)
+            entity.outputs.put(path, hash);
+
+        GenerationMetrics.Stage stage = GenerationMetrics.start(metrics, null, GenerationMetrics.FILE_WRITE);
         try {
-            PrintWriter classOut = new PrintWriter(new BufferedWriter(new FileWriter(daoImplClassPath, false)));
-            classOut.println("package " + packageName + ".dao.impl;");
-            classOut.println("\n");
-            classOut.println("import javax.annotation.PostConstruct;");
-            classOut.println("import org.springframework.stereotype.Repository;");
+            Path file = fileSystem.getPath(path);
+            if (manifest != null && Files.isRegularFile(file) && Files.size(file) == bytes.length
+                    && (entity != null && hash.equals(manifest.getOutputHash(entity.className, path))
+                    || sameContent(file, bytes)))
+                return;
+
+            OutputStream out = Files.newOutputStream(file);
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            stage.addFileWritten(bytes.length);
+        } finally {
+            stage.end();
+        }
+    }
 
-            classOut.println("import " + packageName + ".dao." + daoClassName + ";");
-            classOut.println("import " + packageName + ".domain." + className + ";");
-            classOut.println("import com.netflix.astyanax.entitystore.DefaultEntityManager;");
+    private boolean sameContent(Path file, byte[] bytes) throws IOException {
+        byte[] existing = new byte[bytes.length];
+        InputStream in = Files.newInputStream(file);
+        try {
+            int read = 0;
+            while (read < existing.length) {
+                int n = in.read(existing, read, existing.length - read);
+                if (n < 0)
+                    return false;
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return Arrays.equals(existing, bytes);
+    }
 
-            classOut.println("\n");
-            classOut.println("@Repository");
-            classOut.println("public class " + daoImplClassName + " extends AbstractAstyanaxDaoImpl<" + className
-                    + ", String> implements " + daoClassName + " {");
+    /**
+     * Whether the generated DAOs run anything on AsyncExecutor: the asynchronous methods, and the
+     * multi-gets, bulk writes and scans that default to its shared executor.
+     */
+    private boolean usesAsyncExecutor() {
+        return asyncDaos || multiGets || bulkWrites || tokenRangeScans;
+    }
 
-            classOut.println("\t@Override");
-            classOut.println("\t@PostConstruct");
-            classOut.println("\tpublic void init(){");
+    /**
+     * Whether the asynchronous methods execute their queries and mutation batches with executeAsync
+     * rather than run the blocking calls on an executor: when reads and writes go through the codecs
+     * and are not timed. getAsync(ids) still runs get(ids) when that is a multi-get.
+     */
+    private boolean executesAsync() {
+        return asyncDaos && useEntityCodecs && !instrumentDaos;
+    }
 
-            classOut.println("\t\tentityManager = new DefaultEntityManager.Builder<" + className + ", String>()");
-            classOut.println("\t\t\t.withEntityType(" + className + ".class).withKeyspace(cassandraServer.getKeyspace()).build();");
-            classOut.println("\t}");
+    /**
+     * Deletes a support class that a previous run wrote but this one does not, because the option
+     * it belongs to was turned off, so that it does not linger with references to removed classes.
+     */
+    private void deleteSource(String path) throws IOException {
+        if (Files.deleteIfExists(fileSystem.getPath(path)))
+            logger.info("removed " + path);
+    }
 
-            classOut.println("}");
+    /**
+     * The values the templates of a column family are rendered with: its names, the code snippets
+     * generated for its columns, the settings written into the generated classes and the flags,
+     * derived from the options, that decide which imports and members the templates print.
+     */
+    private Map<String, Object> entityModel(EntityContext entity) {
+        if (entity.model != null)
+            return entity.model;
+
+        String className = entity.className;
+        List<String> javaImports = new ArrayList<String>(entity.javaImports);
+        javaImports.remove("java.util.Date");
+
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("packageName", packageName);
+        model.put("className", className);
+        model.put("instanceName", className.substring(0, 1).toLowerCase() + className.substring(1));
+        model.put("upperClassName", className.toUpperCase());
+        model.put("lowerClassName", className.toLowerCase());
+        model.put("daoClassName", "I" + className + "Dao");
+        model.put("serviceClassName", "I" + className + "Service");
+        model.put("imports", imports);
+        model.put("javaImports", javaImports);
+        model.put("fixtureImports", new ArrayList<String>(entity.fixtureImports));
+        // the fixture imports of each test and the benchmark, less those they import anyway
+        model.put("domainTestImports", importsOf(entity.fixtureImports, "java.util.Date"));
+        model.put("daoTestImports", importsOf(entity.fixtureImports, "java.util.ArrayList", "java.util.Date", "java.util.List"));
+        model.put("serviceTestImports", importsOf(entity.fixtureImports, "java.util.*"));
+        model.put("benchmarkImports", importsOf(entity.fixtureImports, "java.nio.ByteBuffer", "java.util.ArrayList",
+                "java.util.Date", "java.util.List", "java.util.SortedMap", "java.util.TreeMap"));
+        Set<String> codecImports = new TreeSet<String>(entity.codecImports);
+        if (!entity.codecColumns.isEmpty())
+            codecImports.add("java.util.Arrays");
+        codecImports.add("java.util.Collections");
+        codecImports.add("java.util.List");
+        model.put("codecImports", new ArrayList<String>(codecImports));
+        model.put("variables", entity.variables);
+        model.put("getterAndSetters", entity.getterAndSetters);
+        model.put("setterCalls", entity.setterCalls);
+        model.put("codecFields", entity.codecFields);
+        model.put("codecWrites", entity.codecWrites);
+        model.put("codecReads", entity.codecReads);
+        model.put("codecColumns", entity.codecColumns);
+        // the names for the COLUMNS list of the codec, one a line
+        StringBuilder codecColumnNames = new StringBuilder();
+        for (String column : entity.codecColumns) {
+            if (codecColumnNames.length() > 0)
+                codecColumnNames.append(",\n");
+            codecColumnNames.append("\t\t\t\"").append(column).append('"');
+        }
+        model.put("codecColumnNames", codecColumnNames.toString());
+        model.put("randomSetters", entity.randomSetters);
+        model.put("bulkWrites", bulkWrites);
+        model.put("bulkChunkSize", bulkChunkSize);
+        model.put("bulkParallelism", bulkParallelism);
+        model.put("bulkMaxRetries", bulkMaxRetries);
+        model.put("asyncDaos", asyncDaos);
+        model.put("asyncMaxInFlight", asyncMaxInFlight);
+        model.put("pagedReads", pagedReads);
+        model.put("multiGets", multiGets);
+        model.put("multiGetChunkSize", multiGetChunkSize);
+        model.put("multiGetParallelism", multiGetParallelism);
+        model.put("multiGetTimeoutMillis", multiGetTimeoutMillis);
+        model.put("tokenRangeScans", tokenRangeScans);
+        model.put("scanSplits", scanSplits);
+        model.put("scanParallelism", scanParallelism);
+        model.put("scanPageSize", scanPageSize);
+        // the declarations of the DAOs and services, and the bulk writes of the DAOs, take collections
+        // and return lists
+        model.put("importCollection", multiGets || asyncDaos);
+        model.put("importList", tokenRangeScans || asyncDaos);
+        model.put("daoImportCollection", bulkWrites || multiGets || asyncDaos);
+        model.put("daoImportList", bulkWrites || tokenRangeScans || asyncDaos);
+        // and the imports, and the members of the interfaces, are set apart by a blank line only when
+        // there are any
+        boolean declarations = multiGets || pagedReads || tokenRangeScans || asyncDaos;
+        model.put("declarations", declarations);
+        model.put("serviceJavaUtilImports", declarations);
+        model.put("daoJavaUtilImports", declarations || bulkWrites);
+        model.put("useEntityCodecs", useEntityCodecs);
+        model.put("instrumentDaos", instrumentDaos);
+        // the codecs, paged reads and scans of the DAOs query the column family themselves
+        boolean readsRows = useEntityCodecs || pagedReads || tokenRangeScans;
+        boolean overridesCollections = useEntityCodecs || instrumentDaos || bulkWrites || multiGets || asyncDaos;
+        model.put("readsRows", readsRows);
+        model.put("overridesCollections", overridesCollections);
+        model.put("implImportPersistenceException", readsRows || multiGets);
+        model.put("implImportList", readsRows || overridesCollections);
+        model.put("implImportPage", pagedReads || tokenRangeScans);
+        model.put("usesAsyncExecutor", usesAsyncExecutor());
+        model.put("executesAsync", executesAsync());
+        // getAsync(ids) runs get(ids) on the executor when that is a multi-get
+        model.put("submitsGetByIds", !executesAsync() || multiGets);
+        model.put("operations", instrumentDaos ? instrumentedOperations(className) : new ArrayList<Map<String, Object>>());
+        Integer cacheSize = entityCacheSizes.get(className);
+        Long cacheTtlSeconds = entityCacheTtlSeconds.get(className);
+        model.put("cacheSize", cacheSize);
+        model.put("cacheTtlSeconds", cacheTtlSeconds);
+        model.put("cached", cacheSize != null && cacheSize > 0);
+        model.put("cacheTtlMillis", cacheTtlSeconds == null ? 0 : cacheTtlSeconds * 1000);
+        entity.model = model;
+        return model;
+    }
+
+    /**
+     * The public DAO methods that time the call and count its rows, bytes and failures before
+     * delegating to the inherited implementation or to the private codec, paging and chunk methods:
+     * their metric, return type, signature, delegate call (null for the codec writes) and row count.
+     */
+    private List<Map<String, Object>> instrumentedOperations(String className) {
+        String list = "List<" + className + ">";
+        String entities = "Collection<" + className + "> entities";
+        String listRows = "result == null ? 0 : result.size()";
+        List<String[]> operations = new ArrayList<String[]>();
+        operations.add(new String[]{"get", className, "get(String id)", useEntityCodecs ? "readRow(id, call)" : "super.get(id)",
+                "result == null ? 0 : 1"});
+        String getByIds = multiGets ? "entitiesOf(readSlices(ids, call), ids.size())"
+                : useEntityCodecs ? "readRows(ids, call)" : "super.get(ids)";
+        operations.add(new String[]{"getByIds", list, "get(Collection<String> ids)", getByIds, listRows});
+        if (multiGets) {
+            operations.add(new String[]{"multiGet", "MultiGetResult<" + className + ">", "multiGet(Collection<String> ids)",
+                    "readSlices(ids, call)", "result.getEntities().size()"});
+        }
+        operations.add(new String[]{"getAll", list, "getAll()", "super.getAll()", listRows});
+        operations.add(new String[]{"find", list, "find(String cql)", "super.find(cql)", listRows});
+        if (pagedReads) {
+            operations.add(new String[]{"getPage", "Page<" + className + ">", "getPage(String resumeToken, int pageSize)",
+                    "readPage(resumeToken, pageSize, call)", "result.getEntities().size()"});
+        }
+        operations.add(new String[]{"save", "void", "save(" + className + " entity)", useEntityCodecs ? null : "super.save(entity)", "1"});
+        operations.add(new String[]{"saveAll", "void", "save(" + entities + ")", useEntityCodecs ? null : "super.save(entities)",
+                "entities.size()"});
+        if (bulkWrites) {
+            operations.add(new String[]{"saveInChunks", "List<ChunkResult<" + className + ">>", "saveInChunks(" + entities + ")",
+                    "saveChunks(entities, call)", "entities.size()"});
+        }
+        operations.add(new String[]{"delete", "void", "delete(" + className + " entity)", "super.delete(entity)", "1"});
+        operations.add(new String[]{"deleteAll", "void", "delete(" + entities + ")", "super.delete(entities)", "entities.size()"});
+        operations.add(new String[]{"deleteById", "void", "deleteById(String id)", "super.deleteById(id)", "1"});
+        operations.add(new String[]{"deleteByIds", "void", "deleteByIds(Collection<String> ids)", "super.deleteByIds(ids)", "ids.size()"});
+        if (bulkWrites) {
+            operations.add(new String[]{"deleteInChunks", "List<ChunkResult<" + className + ">>", "deleteInChunks(" + entities + ")",
+                    "deleteChunks(entities)", "entities.size()"});
+        }
+        operations.add(new String[]{"truncate", "void", "truncate()", "super.truncate()", "0"});
+
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(operations.size());
+        for (String[] operation : operations) {
+            Map<String, Object> values = new HashMap<String, Object>();
+            values.put("operation", operation[0]);
+            values.put("returnType", operation[1]);
+            values.put("signature", operation[2]);
+            values.put("delegate", operation[3]);
+            values.put("rowCount", operation[4]);
+            // codec writes, which report connection failures as checked exceptions
+            values.put("codecWrite", operation[3] == null);
+            values.put("written", operation[0].equals("save") ? "Collections.singletonList(entity)" : "entities");
+            values.put("returnsNothing", operation[3] != null && operation[1].equals("void"));
+            values.put("returnsResult", !operation[1].equals("void"));
+            values.put("inChunks", operation[0].endsWith("InChunks"));
+            values.put("multiGet", operation[0].equals("multiGet"));
+            result.add(values);
+        }
+        return result;
+    }
 
-            classOut.close();
+    private void generateDaoImplClass(EntityContext entity, String className, String daoImplPath, String daoClassName, String daoImplClassName) {
+        String daoImplClassPath = daoImplPath + separator() + daoImplClassName + ".java";
+        try {
+            writeSource(entity, daoImplClassPath, templates.render("daoImpl", entityModel(entity)));
 
         } catch (Exception ex) {
             ex.printStackTrace();
         }
     }
 
-    private void generateDaoInterface(String className, String daoClassName, String daoPath) {
-
-
-        String daoClassPath = daoPath + File.separator + daoClassName + ".java";
+    private void generateCodecClass(EntityContext entity, String className, String daoImplPath) {
+        String codecClassPath = daoImplPath + separator() + className + "Codec.java";
         try {
-            PrintWriter classOut = new PrintWriter(new BufferedWriter(new FileWriter(daoClassPath, false)));
-            classOut.println("package " + packageName + ".dao;");
-            classOut.println("\n");
+            writeSource(entity, codecClassPath, templates.render("codec", entityModel(entity)));
+
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
 
-            classOut.println("import " + packageName + ".domain." + className + ";");
-            classOut.println("\n");
+    private void generateDaoInterface(EntityContext entity, String className, String daoClassName, String daoPath) {
 
-            classOut.println("public interface " + daoClassName + " extends IAbstractDao<" + className + ", String> {");
-            classOut.println("}");
-            classOut.println("\n");
 
-            classOut.close();
+        String daoClassPath = daoPath + separator() + daoClassName + ".java";
+        try {
+            writeSource(entity, daoClassPath, templates.render("dao", entityModel(entity)));
 
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -199,501 +735,420 @@ public class JPACodeGenerator {
 
     }
 
-    private void generateDomainClass(String className, String domainClassFilePath) {
+    private void generateDomainClass(EntityContext entity, String className, String domainClassFilePath) {
         try {
-            PrintWriter classOut = new PrintWriter(new BufferedWriter(new FileWriter(domainClassFilePath, false)));
-
-            classOut.println("package " + packageName + ".domain;");
-            classOut.println("\n");
-            printCodeSection(imports, classOut);
-            classOut.println("\n");
-            classOut.println("@Entity");
-            classOut.println("public class " + className + " extends DomainBase {");
-            generateKeyVarable(classOut);
-            printCodeSection(variables, classOut);
-            classOut.println("\n");
-            generateKeyGetterAndSetter(classOut);
-            printCodeSection(getterAndSetters, classOut);
-            classOut.println("}");
-
-            classOut.close();
+            writeSource(entity, domainClassFilePath, templates.render("domain", entityModel(entity)));
 
         } catch (Exception ex) {
             ex.printStackTrace();
-        } finally {
-
-            variables.clear();
-            getterAndSetters.clear();
-
         }
     }
 
-    private void generateDomainTest(String className, String domainTestFilePath) {
+    private void generateDomainTest(EntityContext entity, String className, String domainTestFilePath) {
         try {
-            PrintWriter classOut = new PrintWriter(new BufferedWriter(new FileWriter(domainTestFilePath, false)));
-            classOut.println("package " + packageName + ".domain;");
-            classOut.println("\n");
-            classOut.println("import java.util.Date;");
-            classOut.println("import org.junit.Before;");
-            classOut.println("import org.junit.Test;");
-            classOut.println("import org.junit.Assert;");
-            classOut.println("\n");
-            classOut.println("import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;");
-            classOut.println("import com.netflix.astyanax.entitystore.DefaultEntityManager;");
-            classOut.println("import com.netflix.astyanax.entitystore.EntityManager;");
-            classOut.println("import com.netflix.astyanax.model.ColumnFamily;");
-            classOut.println("import com.netflix.astyanax.serializers.StringSerializer;");
-            classOut.println("import " + packageName + ".domain." + className + ";");
-            classOut.println();
-            classOut.println("public class " + className + "DomainTest extends AbstractDomainTest {");
-            classOut.println();
-            classOut.println("\tpublic static ColumnFamily<String, String> CF_" + className.toUpperCase() + " = ColumnFamily");
-            classOut.println("\t\t.newColumnFamily(\"" + className + "\", StringSerializer.get(),");
-            classOut.println("\t\t\tStringSerializer.get());");
-            classOut.println();
-            classOut.println("\t@Before");
-            classOut.println("\tpublic void init() {");
-            classOut.println("\t\tEntityManager<" + className + ", String> entityPersister = new DefaultEntityManager.Builder<"
-                    + className + ", String>()");
-            classOut.println("\t\t\t.withEntityType(" + className + ".class).withKeyspace(cassandraServer.getKeyspace())");
-            classOut.println("\t\t\t.build();");
-            classOut.println("\t\ttry {");
-            classOut.println("\t\t\tentityPersister.createStorage(null);");
-            classOut.println("\t\t} catch (Exception e) {");
-            classOut.println("\t\t}");
-            classOut.println();
-            classOut.println("\t\ttry {");
-            classOut.println("\t\t\tcassandraServer.getKeyspace().createColumnFamily(CF_" + className.toUpperCase() + ", null);");
-            classOut.println("\t\t} catch (ConnectionException e) {");
-            classOut.println("\t\t\te.printStackTrace();");
-            classOut.println("\t\t}");
-            classOut.println("\t}");
-            classOut.println();
-            classOut.println("\tprivate " + className + " create_" + className + "(String id) {");
-            classOut.println("\t\t" + className + " " + className.substring(0,1).toLowerCase() + className.substring(1)
-                    + " = new " + className + "();");
-            classOut.println("\t\t" + className.substring(0,1).toLowerCase() + className.substring(1) + ".setId(id);");
-            printCodeSection(setterCalls, classOut);
-            classOut.println("\t\treturn " + className.substring(0,1).toLowerCase() + className.substring(1) + ";");
-            classOut.println("\t}");
-            classOut.println();
-            classOut.println("\t@Test");
-            classOut.println("\tpublic void basicLifecycle() throws Exception {");
-            classOut.println("\t\tfinal String id = \"" + className + "_basicLifecycle\";");
-            classOut.println("\t\tEntityManager<" + className + ", String> entityPersister = new DefaultEntityManager.Builder<"
-                    + className + ", String>()");
-            classOut.println("\t\t\t.withEntityType(" + className + ".class).withKeyspace(cassandraServer.getKeyspace())");
-            classOut.println("\t\t\t.build();");
-            classOut.println("\t\t" + className + " origEntity = create_" + className + "(id);");
-            classOut.println();
-            classOut.println("\t\tentityPersister.put(origEntity);");
-            classOut.println();
-            classOut.println("\t\t" + className + " getEntity = entityPersister.get(id);");
-            classOut.println("\t\tSystem.out.println(getEntity.toString());");
-            classOut.println("\t\tAssert.assertEquals(origEntity, getEntity);");
-            classOut.println("\n");
-            classOut.println("\t\tentityPersister.delete(id);");
-            classOut.println("\t\tgetEntity = entityPersister.get(id);");
-            classOut.println("\t\tAssert.assertEquals(null, getEntity);");
-            classOut.println("\n");
-            classOut.println("\t}");
-            classOut.println("}");
-
-            classOut.close();
+            writeSource(entity, domainTestFilePath, templates.render("domainTest", entityModel(entity)));
 
         } catch (Exception ex) {
             ex.printStackTrace();
         }
     }
 
-    private void generateServiceImplClass (String className, String serviceImplPath, String serviceClassName,
-                                           String serviceImplClassName, String daoClassName){
-        String serviceImplClassPath = serviceImplPath + File.separator + serviceImplClassName + ".java";
+    private void generateServiceImplClass(EntityContext entity, String className, String serviceImplPath, String serviceClassName,
+                                          String serviceImplClassName, String daoClassName) {
+        String serviceImplClassPath = serviceImplPath + separator() + serviceImplClassName + ".java";
         try {
-            PrintWriter classOut = new PrintWriter(new BufferedWriter(new FileWriter(serviceImplClassPath, false)));
-            classOut.println("package " + packageName + ".service.impl;");
-            classOut.println("\n");
-            classOut.println("import java.util.Collection;");
-            classOut.println("import java.util.List;");
-            classOut.println("import java.util.Map;\n");
-            classOut.println("import org.springframework.beans.factory.annotation.Autowired;");
-            classOut.println("import org.springframework.stereotype.Service;\n");
-            classOut.println("import " + packageName + ".dao." + daoClassName + ";");
-            classOut.println("import " + packageName + ".domain." + className + ";\n");
-            classOut.println("import " + packageName + ".service." + serviceClassName + ";");
-            classOut.println("@Service");
-            classOut.println("public class " + serviceImplClassName + " implements " + serviceClassName + " {");
-            classOut.println("\n\t@Autowired");
-            classOut.println("\t" + daoClassName + " dao;\n");
-            classOut.println("\t@Override");
-            classOut.println("\tpublic " + className + " get(String id) {");
-            classOut.println("\t\treturn dao.get(id);");
-            classOut.println("\t}\n");
-            classOut.println("\t@Override");
-            classOut.println("\tpublic List<" + className + "> getAll() {");
-            classOut.println("\t\treturn dao.getAll();");
-            classOut.println("\t}\n");
-            classOut.println("\t@Override");
-            classOut.println("\tpublic List<" + className + "> get(Collection<String> ids) {");
-            classOut.println("\t\treturn dao.get(ids);");
-            classOut.println("\t}\n");
-            classOut.println("\t@Override");
-            classOut.println("\tpublic void save(" + className + " entity) {");
-            classOut.println("\t\tdao.save(entity);\n");
-            classOut.println("\t}\n");
-            classOut.println("\t@Override");
-            classOut.println("\tpublic void save(Collection<" + className + "> entities) {");
-            classOut.println("\t\tdao.save(entities);\n");
-            classOut.println("\t}\n");
-            classOut.println("\t@Override");
-            classOut.println("\tpublic void delete(" + className + " entity) {");
-            classOut.println("\t\tdao.delete(entity);\n");
-            classOut.println("\t}\n");
-            classOut.println("\t@Override");
-            classOut.println("\tpublic void deleteById(String id) {");
-            classOut.println("\t\tdao.deleteById(id);\n");
-            classOut.println("\t}\n");
-            classOut.println("\t@Override");
-            classOut.println("\tpublic void deleteByIds(Collection<String> ids) {");
-            classOut.println("\t\tdao.deleteByIds(ids);\n");
-            classOut.println("\t}\n");
-            classOut.println("\t@Override");
-            classOut.println("\tpublic void delete(Collection<" + className + "> entities) {");
-            classOut.println("\t\tdao.delete(entities);\n");
-            classOut.println("\t}\n");
-            classOut.println("\t@Override");
-            classOut.println("\tpublic List<" + className + "> find(java.lang.String cql) {");
-            classOut.println("\t\treturn dao.find(cql);\n");
-            classOut.println("\t}\n");
-            classOut.println("\t@Override");
-            classOut.println("\tpublic void createStorage(Map<java.lang.String, Object> options) {");
-            classOut.println("\t\tdao.createStorage(options);\n");
-            classOut.println("\t}\n");
-            classOut.println("\t@Override");
-            classOut.println("\tpublic void deleteStorage() {");
-            classOut.println("\t\tdao.deleteStorage();\n");
-            classOut.println("\t}\n");
-            classOut.println("\t@Override");
-            classOut.println("\tpublic void truncate() {");
-            classOut.println("\t\tdao.truncate();\n");
-            classOut.println("\t}\n");
-            classOut.println();
-            classOut.println("}");
-
-            classOut.close();
+            writeSource(entity, serviceImplClassPath, templates.render("serviceImpl", entityModel(entity)));
 
         } catch (Exception ex) {
             ex.printStackTrace();
         }
     }
 
-    private void generateServiceInterface (String className, String serviceClassName, String servicePath) {
-        String serviceClassPath = servicePath + File.separator + serviceClassName + ".java";
+    private void generateServiceInterface (EntityContext entity, String className, String serviceClassName, String servicePath) {
+        String serviceClassPath = servicePath + separator() + serviceClassName + ".java";
         try {
-            PrintWriter classOut = new PrintWriter(new BufferedWriter(new FileWriter(serviceClassPath, false)));
-            classOut.println("package " + packageName + ".service;\n");
-            classOut.println("import org.springframework.stereotype.Service;\n");
-            classOut.println("import " + packageName + ".domain." + className + ";\n");
-            classOut.println("@Service");
-            classOut.println("public interface " + serviceClassName + " extends IAbstractService<" + className + ", String> {\n");
-            classOut.println("}");
-
-            classOut.close();
+            writeSource(entity, serviceClassPath, templates.render("service", entityModel(entity)));
 
         }catch (Exception ex) {
             ex.printStackTrace();
         }
     }
 
-    private void generateDaoTest(String className, String daoTestFilePath) {
+    private void generateDaoTest(EntityContext entity, String className, String daoTestFilePath) {
         try {
-            PrintWriter classOut = new PrintWriter(new BufferedWriter(new FileWriter(daoTestFilePath, false)));
-            classOut.println("package " + packageName + ".dao;");
-            classOut.println("\n");
-            classOut.println("import java.util.ArrayList;");
-            classOut.println("import java.util.Date;");
-            classOut.println("import java.util.List;");
-            classOut.println();
-            classOut.println("import org.junit.Assert;");
-            classOut.println("import org.junit.Before;");
-            classOut.println("import org.junit.Test;");
-            classOut.println();
-            classOut.println("import " + packageName + ".dao.impl." + className + "DaoImpl;");
-            classOut.println("import " + packageName + ".domain." + className + ";");
-            classOut.println("import com.netflix.astyanax.entitystore.DefaultEntityManager;");
-            classOut.println();
-            classOut.println("public class " + className + "DaoTest extends AbstractDaoTest<" + className + ", String> {");
-            classOut.println();
-            classOut.println("\tprivate I" + className + "Dao dao = null;");
-            classOut.println();
-            classOut.println("\t@Before");
-            classOut.println("\tpublic void init() {");
-            classOut.println("\t\tentityManager = new DefaultEntityManager.Builder<"
-                    + className + ", String>()");
-            classOut.println("\t\t\t.withEntityType(" + className + ".class).withKeyspace(cassandraServer.getKeyspace())");
-            classOut.println("\t\t\t.build();");
-            classOut.println("\t\ttry {");
-            classOut.println("\t\t\tentityManager.createStorage(null);");
-            classOut.println("\t\t} catch (Exception e) {");
-            classOut.println("\t\t}");
-            classOut.println();
-            classOut.println("\t\tdao = new " + className + "DaoImpl();");
-            classOut.println("\t\tdao.setEntityManager(entityManager);");
-            classOut.println();
-            classOut.println("\t}");
-            classOut.println();
-            classOut.println("\tprivate " + className + " create_" + className + "(String id) {");
-            classOut.println("\t\t" + className + " " + className.substring(0,1).toLowerCase() + className.substring(1) + " = new "
-                    + className + "();");
-            classOut.println("\t\t" + className.substring(0,1).toLowerCase() + className.substring(1) + ".setId(id);");
-            printCodeSection(setterCalls, classOut);
-            classOut.println("\t\treturn " + className.substring(0,1).toLowerCase() + className.substring(1) + ";");
-            classOut.println("\t}");
-            classOut.println();
-            classOut.println("\t@Test");
-            classOut.println("\tpublic void singleEntityTest() throws Exception {");
-            classOut.println("\t\tfinal String id = \"" + className + "_ST\";");
-            classOut.println("\t\t" + className + " origEntity = create_" + className + "(id);");
-            classOut.println("\t\tdao.save(origEntity);");
-            classOut.println();
-            classOut.println("\t\t" + className + " getEntity = dao.get(id);");
-            classOut.println("\t\tSystem.out.println(getEntity.toString());");
-            classOut.println("\t\tAssert.assertEquals(origEntity, getEntity);");
-            classOut.println();
-            classOut.println("\t\tdao.deleteById(id);");
-            classOut.println("\t\tgetEntity = dao.get(id);");
-            classOut.println("\t\tAssert.assertEquals(null, getEntity);");
-            classOut.println();
-            classOut.println("\t\tfinal String idnew = \"" + className + "_STnew\";");
-            classOut.println("\t\t" + className + " newEntity = create_" + className + "(idnew);");
-            classOut.println("\t\t dao.save(newEntity);");
-            classOut.println();
-            classOut.println("\t\tgetEntity = dao.get(idnew);");
-            classOut.println("\t\tSystem.out.println(getEntity.toString());");
-            classOut.println("\t\tAssert.assertEquals(newEntity, getEntity);");
-            classOut.println();
-            classOut.println("\t\tdao.delete(newEntity);");
-            classOut.println("\t\tgetEntity = dao.get(idnew);");
-            classOut.println("\t\tAssert.assertEquals(null, getEntity);");
-            classOut.println();
-            classOut.println("\t}");
-            classOut.println();
-            classOut.println("\tprivate List<" + className + "> createMultiple_" + className + "(String id) {");
-            classOut.println("\t\tList<" + className + "> list = new ArrayList<" + className + ">();");
-            classOut.println("\t\t" + className + " " + className.substring(0,1).toLowerCase() + className.substring(1) + " = null;");
-            classOut.println();
-            classOut.println("\t\tfor (int i = 0; i < 10; i++) {");
-            classOut.println("\t\t\t" + className.substring(0,1).toLowerCase() + className.substring(1) + " = new " + className + "();");
-            classOut.println("\t\t\t" + className.substring(0,1).toLowerCase() + className.substring(1) + ".setId(id + i);");
-            printCodeSection(setterCalls, classOut);
-            classOut.println();
-            classOut.println("\t\t\tlist.add(" + className.substring(0,1).toLowerCase() + className.substring(1) + ");");
-            classOut.println("\t\t}");
-            classOut.println();
-            classOut.println("\treturn list;");
-            classOut.println("\t}");
-            classOut.println();
-            classOut.println("\t@Test");
-            classOut.println("\tpublic void multipleEntityTest() throws Exception {");
-            classOut.println("\t\tList<" + className + ">  getfirstList = dao.getAll();");
-            classOut.println("\t\tdao.delete(getfirstList);");
-            classOut.println("\t\tgetfirstList = dao.getAll();");
-            classOut.println("Assert.assertEquals(0, getfirstList.size());");
-            classOut.println();
-            classOut.println("\t\tString id = \"" + className + "_MT\";");
-            classOut.println("\t\tList<" + className + "> " + className + "List = createMultiple_" + className + "(id);");
-            classOut.println("\t\tdao.save(" + className + "List);");
-            classOut.println();
-            classOut.println("\t\tList<" + className + ">  get" + className + "List = dao.getAll();");
-            classOut.println("\t\tAssert.assertEquals(" + className + "List.size(), get" + className + "List.size());");
-            classOut.println();
-            classOut.println("\t\tdao.delete(" + className + "List);");
-            classOut.println("\t\tget" + className + "List = dao.getAll();");
-            classOut.println("\t\tAssert.assertEquals(0,get" + className + "List.size());");
-            classOut.println("\t}");
-            classOut.println("}");
-
-            classOut.close();
+            writeSource(entity, daoTestFilePath, templates.render("daoTest", entityModel(entity)));
 
         } catch (Exception ex) {
             ex.printStackTrace();
         }
-
-
     }
 
-    private void generateServiceTest (String className, String serviceTestFilePath, String serviceClassName){
-        try{
-            PrintWriter classOut = new PrintWriter(new BufferedWriter(new FileWriter(serviceTestFilePath, false)));
-            classOut.println("package " + packageName + ".service;");
-            classOut.println("\n");
-            classOut.println("import java.util.*;\n");
-            classOut.println("import org.junit.Assert;");
-            classOut.println("import org.junit.Before;");
-            classOut.println("import org.junit.Test;");
-            classOut.println("import org.springframework.beans.factory.annotation.Autowired;\n");
-            classOut.println("import " + packageName + ".domain." + className + ";\n");
-            classOut.println("public class " + className + "ServiceTest extends AbstractServiceTest<" + className + ", String> {\n\n\n");
-            classOut.println("\t@Autowired");
-            classOut.println("\t" + serviceClassName +" service;\n");
-            classOut.println("\tprivate " + className + " create_" + className + "(String id) {");
-            String classNameVariable = className.substring(0, 1).toLowerCase()
-                    + className.substring(1);
-            classOut.println("\t\t" + className + " " + classNameVariable + " = new " + className + "();");
-            classOut.println("\t\t" + classNameVariable + ".setId(id);");
-            printCodeSection(setterCalls, classOut);
-            classOut.println();
-            classOut.println("\t\treturn " + classNameVariable + ";");
-            classOut.println("\t}\n");
-            classOut.println("\t@Before");
-            classOut.println("\tpublic void createStorage(){");
-            classOut.println("\t\ttry{");
-            classOut.println("\t\t service.createStorage(null);");
-            classOut.println("\t\t}catch(Exception e){");
-            classOut.println("\t\t\t//e.printStackTrace();");
-            classOut.println("\t\t\tSystem.out.println(e.getMessage());");
-            classOut.println("\t\t}");
-            classOut.println("\t}\n");
-            classOut.println("\t@Test");
-            classOut.println("\tpublic void lifecycleTest() {");
-            classOut.println("\t\tfinal String id = \"" + className + "_STT\";");
-            classOut.println("\t\t" + className + " origEntity = create_" + className + "(id);");
-            classOut.println("\t\tservice.save(origEntity);\n");
-            classOut.println("\t\t" + className + " getEntity =  service.get(id);");
-            classOut.println("\t\tSystem.out.println(getEntity.toString());");
-            classOut.println("\t\tAssert.assertEquals(origEntity, getEntity);\n");
-            classOut.println("\t\tservice.deleteById(id);");
-            classOut.println("\t\tgetEntity =  service.get(id);");
-            classOut.println("\t\tAssert.assertEquals(null, getEntity);\n");
-            classOut.println("\t\tfinal String idnew = \"" + className + "_STnew\";");
-            classOut.println("\t\t" + className + " newEntity = create_" + className + "(idnew);");
-            classOut.println("\t\tservice.save(newEntity);\n");
-            classOut.println("\t\tgetEntity =  service.get(idnew);");
-            classOut.println("\t\tSystem.out.println(getEntity.toString());");
-            classOut.println("\t\tAssert.assertEquals(newEntity, getEntity);\n");
-            classOut.println("\t\tservice.delete(newEntity);");
-            classOut.println("\t\tgetEntity =  service.get(idnew);");
-            classOut.println("\t\tAssert.assertEquals(null, getEntity);");
-            classOut.println("\t}\n");
-            classOut.println("\tprivate List<" + className + "> createMultiple_" + className + "(String id) {");
-            classOut.println("List<" + className + "> list = new ArrayList<" + className + ">();");
-            classOut.println(className + " " + classNameVariable + " = null;\n");
-            classOut.println("\t\tfor (int i = 0; i < 10; i++) {");
-            classOut.println("\t\t\t" + classNameVariable + " = new " + className + "();");
-            classOut.println("\t\t\t" + classNameVariable + ".setId(id + i);");
-            printCodeSection(setterCalls, classOut);
-            classOut.println("list.add(" + classNameVariable + ");");
-            classOut.println("\t\t}\n");
-            classOut.println("\t\treturn list;");
-            classOut.println("\t}\n");
-            classOut.println("\t@Test");
-            classOut.println("\tpublic void multipleEntityTest() throws Exception {");
-            classOut.println("\t\tString id = \"" + className + "MT\";");
-            classOut.println("\t\tList<" + className + ">  " + className + "List = createMultiple_" + className + "(id);");
-            classOut.println("\t\tservice.save(" + className + "List);\n");
-            classOut.println("\t\tList<" + className + ">  get" + className + "List = service.getAll();");
-            classOut.println("\t\tAssert.assertEquals(" + className + "List.size(), get" + className + "List.size());\n");
-            classOut.println("\t\tservice.delete(" + className  + "List);");
-            classOut.println("\t\tget" + className + "List = service.getAll();");
-            classOut.println("\t\tAssert.assertEquals(0,get" + className + "List.size());");
-            classOut.println("\t}\n");
-            classOut.println("}");
-
-            classOut.close();
-
+    private void generateServiceTest(EntityContext entity, String className, String serviceTestFilePath, String serviceClassName) {
+        try {
+            writeSource(entity, serviceTestFilePath, templates.render("serviceTest", entityModel(entity)));
 
         } catch (Exception ex) {
             ex.printStackTrace();
-        } finally {
-
-            setterCalls.clear();
-
         }
     }
 
-    private void generateKeyVarable(PrintWriter out) throws Exception {
-        out.println("\t@Id");
-        out.println("\tprivate String id;");
-    }
-
-    private void generateKeyGetterAndSetter(PrintWriter out) throws Exception {
+    private void generateBenchmark(EntityContext entity, String className, String benchmarkFilePath) {
+        try {
+            writeSource(entity, benchmarkFilePath, templates.render("benchmark", entityModel(entity)));
 
-        out.println("\tpublic String getId() {");
-        out.println("\t\treturn id;");
-        out.println("\t}\n");
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
 
-        out.println("\tpublic void setId(String id) {");
-        out.println("\t\tthis.id = id;");
-        out.println("\t}\n");
+    private void generateWorkload(EntityContext entity, String className, String workloadFilePath) {
+        try {
+            writeSource(entity, workloadFilePath, templates.render("workload", entityModel(entity)));
 
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
     }
 
-    private void printCodeSection(List<String> section, PrintWriter out) throws Exception {
-        for (String line : section) {
-            out.println(line);
+    /**
+     * The classes of names not in the list of those already imported, which may contain on demand
+     * imports (java.util.*).
+     */
+    private static List<String> importsOf(Set<String> names, String... imported) {
+        List<String> skip = Arrays.asList(imported);
+        List<String> result = new ArrayList<String>();
+        for (String name : names) {
+            String onDemand = name.substring(0, name.lastIndexOf('.')) + ".*";
+            if (!skip.contains(name) && !skip.contains(onDemand))
+                result.add(name);
         }
+        return result;
     }
 
-    private void generateSnippets(String name, int type, String className) {
+    private void generateSnippets(EntityContext entity, String name, CqlTypeMapping.Type type, String className) {
 
         name = name.toLowerCase();
         /* if column name contains -, remove it */
         String variablename = name.replace("-", "_").replace("&", "");
+        String javaType = type.getJavaType();
+        entity.javaImports.addAll(type.getJavaImports());
 
         StringBuilder sb = new StringBuilder();
         sb.append("\t@Column(name=\"").append(name.toUpperCase()).append("\")\n");
         sb.append("\tprivate ");
-        sb.append(javaTypes[type]);
+        sb.append(javaType);
         sb.append(" ");
         sb.append(variablename);
         sb.append(";\n");
-        variables.add(sb.toString());
+        entity.variables.add(sb.toString());
 
         sb = new StringBuilder();
-        sb.append("\tpublic ").append(javaTypes[type]).append(" get").append(WordUtils.capitalize(variablename))
+        sb.append("\tpublic ").append(javaType).append(" get").append(WordUtils.capitalize(variablename))
                 .append("() {\n");
         sb.append("\t\treturn ").append(variablename).append(";\n");
         sb.append("\t}\n\n");
 
         sb.append("\tpublic void ").append("set").append(WordUtils.capitalize(variablename))
-                .append("(").append(javaTypes[type]).append(" ").append(variablename).append(") {\n");
+                .append("(").append(javaType).append(" ").append(variablename).append(") {\n");
         sb.append("\t\tthis.").append(variablename).append(" = ").append(variablename).append(";\n");
         sb.append("\t}\n\n");
-        getterAndSetters.add(sb.toString());
+        entity.getterAndSetters.add(sb.toString());
+
+        String fixture = type.fixtureValue(variablename);
+        if (fixture != null) {
+            sb = new StringBuilder();
+            sb.append("\t\t").append(className.substring(0,1).toLowerCase()).append(className.substring(1)).append(".set")
+                    .append(WordUtils.capitalize(variablename))
+                    .append("(").append(fixture).append(");");
+
+            entity.setterCalls.add(sb.toString());
+            entity.fixtureImports.addAll(type.getFixtureImports());
+        }
+
+        String columnName = name.toUpperCase();
+        String property = WordUtils.capitalize(variablename);
+        String serializer = type.getSerializer();
+        entity.codecImports.addAll(type.getSerializerImports());
+        if (serializer.startsWith("new ")) {
+            // serializers that are built rather than shared are built once per codec
+            String field = columnName.replaceAll("[^A-Z0-9_]", "_") + "_SERIALIZER";
+            entity.codecFields.add("\tprivate static final Serializer<" + type.getBoxedType() + "> " + field + " = "
+                    + serializer + ";");
+            entity.codecImports.add("com.netflix.astyanax.Serializer");
+            entity.codecImports.addAll(type.getJavaImports());
+            serializer = field;
+        }
+        if (type.isWritable()) {
+            sb = new StringBuilder();
+            // objects may be null, DefaultEntityManager does not write null fields either
+            if (!type.isPrimitive())
+                sb.append("\t\tif (entity.get").append(property).append("() != null)\n\t");
+            sb.append("\t\tbytes += put(mutation, \"").append(columnName).append("\", ").append(serializer)
+                    .append(".toByteBuffer(entity.get").append(property).append("()), ttl);");
+            entity.codecWrites.add(sb.toString());
+        }
 
         sb = new StringBuilder();
-        sb.append("\t\t").append(className.substring(0,1).toLowerCase()).append(className.substring(1)).append(".set")
-                .append(WordUtils.capitalize(variablename))
-                .append("(").append(generateArgumentString(type, variablename)).append(");");
+        sb.append("\t\tcolumn = columns.getColumnByName(\"").append(columnName).append("\");\n");
+        sb.append("\t\tif (column != null)\n");
+        sb.append("\t\t\tentity.set").append(property).append("(").append(type.readValue(serializer)).append(");");
+        entity.codecReads.add(sb.toString());
+        entity.codecColumns.add(columnName);
+
+        String random = type.randomValue(columnName);
+        if (random != null && type.isWritable()) {
+            sb = new StringBuilder();
+            sb.append("\t\tentity.set").append(property).append("(").append(random).append(");");
+            entity.randomSetters.add(sb.toString());
+        }
+    }
 
-        setterCalls.add(sb.toString());
+    public String getPackageName() {
+        return packageName;
+    }
 
+    public void setPackageName(String packageName) {
+        this.packageName = packageName;
     }
 
-    private String generateArgumentString (int type, String variablename) {
+    public boolean isBulkWrites() {
+        return bulkWrites;
+    }
 
+    public void setBulkWrites(boolean bulkWrites) {
+        this.bulkWrites = bulkWrites;
+    }
 
-        switch (type) {
+    public boolean isPagedReads() {
+        return pagedReads;
+    }
 
-            case 0 : return '"' + variablename.substring(0, 1).toLowerCase()
-                    + variablename.substring(1).toUpperCase() + '"';
+    public void setPagedReads(boolean pagedReads) {
+        this.pagedReads = pagedReads;
+    }
 
-            case 1 : return "new Date()";
+    public int getBulkChunkSize() {
+        return bulkChunkSize;
+    }
 
-            case 2 : return "1.1";
+    public void setBulkChunkSize(int bulkChunkSize) {
+        this.bulkChunkSize = bulkChunkSize;
+    }
 
-            case 3 : return "1";
+    public int getBulkParallelism() {
+        return bulkParallelism;
+    }
 
-            case 4 : return "true";
-        }
-        return "ERROR";
+    public void setBulkParallelism(int bulkParallelism) {
+        this.bulkParallelism = bulkParallelism;
     }
 
-    public String getPackageName() {
-        return packageName;
+    public int getBulkMaxRetries() {
+        return bulkMaxRetries;
     }
 
-    public void setPackageName(String packageName) {
-        this.packageName = packageName;
+    public void setBulkMaxRetries(int bulkMaxRetries) {
+        this.bulkMaxRetries = bulkMaxRetries;
+    }
+
+    public boolean isAsyncDaos() {
+        return asyncDaos;
+    }
+
+    public void setAsyncDaos(boolean asyncDaos) {
+        this.asyncDaos = asyncDaos;
+    }
+
+    public int getAsyncMaxInFlight() {
+        return asyncMaxInFlight;
+    }
+
+    public void setAsyncMaxInFlight(int asyncMaxInFlight) {
+        this.asyncMaxInFlight = asyncMaxInFlight;
+    }
+
+    public boolean isMultiGets() {
+        return multiGets;
+    }
+
+    public void setMultiGets(boolean multiGets) {
+        this.multiGets = multiGets;
+    }
+
+    public int getMultiGetChunkSize() {
+        return multiGetChunkSize;
+    }
+
+    public void setMultiGetChunkSize(int multiGetChunkSize) {
+        this.multiGetChunkSize = multiGetChunkSize;
+    }
+
+    public int getMultiGetParallelism() {
+        return multiGetParallelism;
+    }
+
+    public void setMultiGetParallelism(int multiGetParallelism) {
+        this.multiGetParallelism = multiGetParallelism;
+    }
+
+    public long getMultiGetTimeoutMillis() {
+        return multiGetTimeoutMillis;
+    }
+
+    public void setMultiGetTimeoutMillis(long multiGetTimeoutMillis) {
+        this.multiGetTimeoutMillis = multiGetTimeoutMillis;
+    }
+
+    public Map<String, Integer> getEntityCacheSizes() {
+        return entityCacheSizes;
+    }
+
+    public void setEntityCacheSizes(Map<String, Integer> entityCacheSizes) {
+        this.entityCacheSizes = entityCacheSizes;
+    }
+
+    public Map<String, Long> getEntityCacheTtlSeconds() {
+        return entityCacheTtlSeconds;
+    }
+
+    public void setEntityCacheTtlSeconds(Map<String, Long> entityCacheTtlSeconds) {
+        this.entityCacheTtlSeconds = entityCacheTtlSeconds;
+    }
+
+    public boolean isUseEntityCodecs() {
+        return useEntityCodecs;
+    }
+
+    public void setUseEntityCodecs(boolean useEntityCodecs) {
+        this.useEntityCodecs = useEntityCodecs;
+    }
+
+    public boolean isInstrumentDaos() {
+        return instrumentDaos;
+    }
+
+    public void setInstrumentDaos(boolean instrumentDaos) {
+        this.instrumentDaos = instrumentDaos;
+    }
+
+    public long getSlowCallThresholdMillis() {
+        return slowCallThresholdMillis;
+    }
+
+    public void setSlowCallThresholdMillis(long slowCallThresholdMillis) {
+        this.slowCallThresholdMillis = slowCallThresholdMillis;
+    }
+
+    public boolean isTokenRangeScans() {
+        return tokenRangeScans;
+    }
+
+    public void setTokenRangeScans(boolean tokenRangeScans) {
+        this.tokenRangeScans = tokenRangeScans;
+    }
+
+    public int getScanSplits() {
+        return scanSplits;
+    }
+
+    public void setScanSplits(int scanSplits) {
+        this.scanSplits = scanSplits;
+    }
+
+    public int getScanParallelism() {
+        return scanParallelism;
+    }
+
+    public void setScanParallelism(int scanParallelism) {
+        this.scanParallelism = scanParallelism;
+    }
+
+    public int getScanPageSize() {
+        return scanPageSize;
+    }
+
+    public void setScanPageSize(int scanPageSize) {
+        this.scanPageSize = scanPageSize;
+    }
+
+    public CqlTypeMapping getTypeMapping() {
+        return typeMapping;
+    }
+
+    public void setTypeMapping(CqlTypeMapping typeMapping) {
+        this.typeMapping = typeMapping;
+    }
+
+    public String getTemplateDirectory() {
+        return templateDirectory;
+    }
+
+    public void setTemplateDirectory(String templateDirectory) {
+        this.templateDirectory = templateDirectory;
+        templates = new TemplateEngine(templateDirectory == null ? null : new File(templateDirectory));
+    }
+
+    public FileSystem getOutputFileSystem() {
+        return outputFileSystem;
+    }
+
+    public void setOutputFileSystem(FileSystem outputFileSystem) {
+        this.outputFileSystem = outputFileSystem;
+    }
+
+    public String getSourcesJar() {
+        return sourcesJar;
+    }
+
+    public void setSourcesJar(String sourcesJar) {
+        this.sourcesJar = sourcesJar;
+    }
+
+    public GenerationMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(GenerationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public boolean isVerifyCompilation() {
+        return verifyCompilation;
+    }
+
+    public void setVerifyCompilation(boolean verifyCompilation) {
+        this.verifyCompilation = verifyCompilation;
+    }
+
+    public String getVerifyClasspath() {
+        return verifyClasspath;
+    }
+
+    public void setVerifyClasspath(String verifyClasspath) {
+        this.verifyClasspath = verifyClasspath;
+    }
+
+    public int getVerifyParallelism() {
+        return verifyParallelism;
+    }
+
+    public void setVerifyParallelism(int verifyParallelism) {
+        this.verifyParallelism = verifyParallelism;
+    }
+
+    public int getVerifyBatchSize() {
+        return verifyBatchSize;
+    }
+
+    public void setVerifyBatchSize(int verifyBatchSize) {
+        this.verifyBatchSize = verifyBatchSize;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
     }
 }
@@ -7,4 +7,15 @@
  */
 
 public class JPAGenerationException extends Exception {
+
+    public JPAGenerationException() {
+    }
+
+    public JPAGenerationException(String message) {
+        super(message);
+    }
+
+    public JPAGenerationException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
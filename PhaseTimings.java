@@ -0,0 +1,89 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wall-clock time and allocated memory of the phases of one generator run, from JVM start. Call
+ * mark() at the end of each phase; print() reports how long each took and how much it allocated.
+ *
+ * Allocation is read from the thread allocation counters of the JVM: that of the thread calling
+ * mark(), plus what other threads reported with addAllocated() during the phase. It is -1 where
+ * the JVM does not count allocation.
+ */
+public class PhaseTimings {
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    protected final List<String> phases = new ArrayList<String>();
+    protected final List<Long> millis = new ArrayList<Long>();
+    protected final List<Long> allocated = new ArrayList<Long>();
+    protected final long startMillis;
+    protected long lastMillis;
+
+    private final AtomicLong otherThreadsAllocated = new AtomicLong();
+    private long lastAllocated;
+
+    public PhaseTimings() {
+        // the JVM started this long before the first line of main()
+        startMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getUptime();
+        lastMillis = startMillis;
+        mark("jvm startup");
+    }
+
+    public void mark(String phase) {
+        long now = System.currentTimeMillis();
+        phases.add(phase);
+        millis.add(now - lastMillis);
+        lastMillis = now;
+
+        long threadAllocated = allocatedBytes();
+        if (threadAllocated < 0) {
+            allocated.add(-1L);
+        } else {
+            long total = threadAllocated + otherThreadsAllocated.get();
+            allocated.add(total - lastAllocated);
+            lastAllocated = total;
+        }
+    }
+
+    /**
+     * Counts bytes allocated by a thread other than the one calling mark() into the current phase.
+     */
+    public void addAllocated(long bytes) {
+        if (bytes > 0)
+            otherThreadsAllocated.addAndGet(bytes);
+    }
+
+    public long getTotalMillis() {
+        return lastMillis - startMillis;
+    }
+
+    public void print(PrintStream out) {
+        out.println(String.format("%-24s %10s %12s", "phase", "ms", "MB allocated"));
+        long totalAllocated = 0;
+        for (int i = 0; i < phases.size(); i++) {
+            out.println(String.format("%-24s %10d %12s", phases.get(i), millis.get(i), megabytes(allocated.get(i))));
+            totalAllocated = totalAllocated < 0 || allocated.get(i) < 0 ? -1 : totalAllocated + allocated.get(i);
+        }
+        out.println(String.format("%-24s %10d %12s", "total", getTotalMillis(), megabytes(totalAllocated)));
+    }
+
+    static String megabytes(long bytes) {
+        return bytes < 0 ? "n/a" : String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * Bytes the current thread allocated since it started, or -1 when the JVM does not count them.
+     */
+    static long allocatedBytes() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean counters = (com.sun.management.ThreadMXBean) threads;
+        if (!counters.isThreadAllocatedMemorySupported() || !counters.isThreadAllocatedMemoryEnabled())
+            return -1;
+        return counters.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -7,6 +7,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.netflix.astyanax.AstyanaxContext;
+import com.netflix.astyanax.Cluster;
 import com.netflix.astyanax.ColumnListMutation;
 import com.netflix.astyanax.Keyspace;
 import com.netflix.astyanax.MutationBatch;
@@ -28,17 +29,77 @@ import com.netflix.astyanax.thrift.ThriftFamilyFactory;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.nio.ByteBuffer;
 
 public class SchemaFileGenerator {
     private static final Logger logger = LoggerFactory.getLogger(SchemaFileGenerator.class);
 
     private AstyanaxContext<Keyspace> context;
+    private AstyanaxContext<Cluster> clusterContext;
     private Keyspace keyspace;
     public String outDirectory;
 
+    /**
+     * Whether the direct (in-memory) pipeline should still write the *.db schema files.
+     */
+    private boolean writeSchemaFiles = true;
+
+    /**
+     * Connection to the cluster the schema is read from.
+     */
+    private String clusterName = "Test Cluster";
+    private String seeds = "localhost:9160";
+    private int port = 9160;
+    private int maxConnsPerHost = 4;
+    private int connectTimeoutMillis = 2000;
+    private int socketTimeoutMillis = 11000;
+    private int maxTimeoutWhenExhaustedMillis = 2000;
+    private String cqlVersion = "3.0.2";
+    private String targetCassandraVersion = "1.2.5";
+
+    /**
+     * Keyspaces read in one run, over one connection pool; describeParallelism of them are
+     * described at the same time. When empty, the single keyspace keyspaceName is read, as before.
+     */
+    private List<String> keyspaceNames = new ArrayList<String>();
+    private String keyspaceName = "";
+    private int describeParallelism = 4;
+    private Map<String, Keyspace> keyspaces;
+
+    /**
+     * Where the output of each of the keyspaceNames goes: a directory below the out directories
+     * and a package below the package of the code generator. {keyspace} is replaced by the name
+     * of the keyspace, lower case in package names.
+     */
+    private String keyspaceDirectoryLayout = "{keyspace}";
+    private String keyspacePackageLayout = "{package}.{keyspace}";
+
+    /**
+     * Directory with a schema.template overriding the built-in one, see TemplateEngine; null for
+     * the built-in schema files.
+     */
+    private String templateDirectory;
+    private TemplateEngine templates = new TemplateEngine();
+
+    // records how long writing each schema file took, when set
+    private GenerationMetrics metrics;
+
+    /**
+     * File the described keyspaces are saved to, see SchemaSnapshot; null for none. It is read
+     * instead of describing the cluster while the cluster reports the schema version it was saved
+     * at, and when the cluster cannot be reached. offline does not connect at all and only reads it.
+     */
+    private String schemaSnapshot;
+    private boolean offline;
+
     public SchemaFileGenerator(String outDirectory)
     {
          this.outDirectory = outDirectory;
@@ -49,165 +110,603 @@ public class SchemaFileGenerator {
     public void init() {
         logger.debug("init()");
 
-        context = new AstyanaxContext.Builder()
-                .forCluster("Test Cluster")
-                .forKeyspace("")//Keyspace Name
-                .withAstyanaxConfiguration(new AstyanaxConfigurationImpl()
-                        .setDiscoveryType(NodeDiscoveryType.RING_DESCRIBE)
-                )
-                .withConnectionPoolConfiguration(new ConnectionPoolConfigurationImpl("MyConnectionPool")
-                        .setPort(9160)
-                        .setMaxConnsPerHost(1)
-                        .setSeeds("localhost:9160")
-                )
-                .withAstyanaxConfiguration(new AstyanaxConfigurationImpl()
-                        .setCqlVersion("3.0.2")
-                        .setTargetCassandraVersion("1.2.5"))
+        // keyspaces given with setKeyspace() or setKeyspaces(), fakes in tests
+        if (keyspace != null || keyspaces != null)
+            return;
+
+        if (offline) {
+            if (schemaSnapshot == null)
+                throw new IllegalStateException("offline needs a schemaSnapshot to read the schema from");
+            return;
+        }
+
+        if (keyspaceNames.isEmpty()) {
+            context = new AstyanaxContext.Builder()
+                    .forCluster(clusterName)
+                    .forKeyspace(keyspaceName)
+                    .withAstyanaxConfiguration(astyanaxConfiguration())
+                    .withConnectionPoolConfiguration(connectionPoolConfiguration())
+                    .withConnectionPoolMonitor(new CountingConnectionPoolMonitor())
+                    .buildKeyspace(ThriftFamilyFactory.getInstance());
+
+            context.start();
+            keyspace = context.getEntity();
+            return;
+        }
+
+        // one pool for all keyspaces, so that describing them concurrently shares its connections
+        clusterContext = new AstyanaxContext.Builder()
+                .forCluster(clusterName)
+                .withAstyanaxConfiguration(astyanaxConfiguration())
+                .withConnectionPoolConfiguration(connectionPoolConfiguration())
                 .withConnectionPoolMonitor(new CountingConnectionPoolMonitor())
-                .buildKeyspace(ThriftFamilyFactory.getInstance());
+                .buildCluster(ThriftFamilyFactory.getInstance());
+
+        clusterContext.start();
+        keyspaces = new LinkedHashMap<String, Keyspace>();
+        for (String name : keyspaceNames) {
+            try {
+                keyspaces.put(name, clusterContext.getClient().getKeyspace(name));
+            } catch (ConnectionException e) {
+                logger.error("failed to open keyspace " + name, e);
+                throw new RuntimeException("failed to open keyspace " + name, e);
+            }
+        }
+    }
 
-        context.start();
-        keyspace = context.getEntity();
+    private AstyanaxConfigurationImpl astyanaxConfiguration() {
+        return new AstyanaxConfigurationImpl()
+                .setDiscoveryType(NodeDiscoveryType.RING_DESCRIBE)
+                .setCqlVersion(cqlVersion)
+                .setTargetCassandraVersion(targetCassandraVersion);
+    }
+
+    private ConnectionPoolConfigurationImpl connectionPoolConfiguration() {
+        return new ConnectionPoolConfigurationImpl("MyConnectionPool")
+                .setPort(port)
+                .setMaxConnsPerHost(maxConnsPerHost)
+                .setSeeds(seeds)
+                .setConnectTimeout(connectTimeoutMillis)
+                .setSocketTimeout(socketTimeoutMillis)
+                .setMaxTimeoutWhenExhausted(maxTimeoutWhenExhaustedMillis);
+    }
+
+    /**
+     * Closes the connection pool opened by init().
+     */
+    public void shutdown() {
+        if (context != null)
+            context.shutdown();
+        if (clusterContext != null)
+            clusterContext.shutdown();
     }
 
     public void generateCode()   {
         logger.debug("generateCode()");
+        writeSchemaFiles(describeColumnFamilies());
+    }
+
+    /**
+     * Reads the column family definitions of the keyspace into the in-memory schema model,
+     * without writing anything to disk.
+     */
+    public List<ColumnFamilySchema> describeColumnFamilies() {
+        logger.debug("describeColumnFamilies()");
+        if (schemaSnapshot != null)
+            return describeKeyspaces().get(keyspaceName);
         try {
+            return describeColumnFamilies(keyspace);
+        } catch (ConnectionException e) {
+            logger.error("failed to read from C*", e);
+            throw new RuntimeException("failed to read from C*", e);
+        }
+    }
 
-            List<ColumnFamilyDefinition> columnFamilyDefinitionList = keyspace.describeKeyspace().getColumnFamilyList();
-            ColumnFamilyDefinition columnFamilyDefinition;
-            List<com.netflix.astyanax.ddl.ColumnDefinition> columnDefinitionList;
-            String columnFamilyName;
-            Properties properties;
-            Double bloomFilterFpChance;
-            String caching;
-            String comment;
-            Double localReadRepairChance;
-            Integer gcGraceSeconds;
-            Double readRepairChance;
-            Boolean replicateOnWrite;
-            Object populate_io_cache_on_flush;
-            String compactionStrategy;
-            Map<String, String> compressionOptions;
-            Set<Map.Entry<String, String>> compressionOptionsCollection;
-            String compressionKey;
-            String compressionValue;
-            String primaryKeyType;
-
-            ColumnDefinition columnDefinition;
-            String columnName;
-            String columnType;
-
-            File directory = new File(outDirectory);
-
-            String schemaPath = directory.getPath() + File.separator + "main";
-            File schemaDir = new File(schemaPath);
-            if (!schemaDir.exists())
-                schemaDir.mkdir();
-
-            schemaPath = schemaPath + File.separator + "resources";
-            schemaDir = new File(schemaPath);
-            if (!schemaDir.exists())
-                schemaDir.mkdir();
-
-            schemaPath = schemaPath + File.separator + "schema";
-            schemaDir = new File(schemaPath);
-            if (!schemaDir.exists())
-                schemaDir.mkdir();
-
-            String schemaFilePath;
-            PrintWriter classOut;
-            try {
+    private static List<ColumnFamilySchema> describeColumnFamilies(Keyspace keyspace) throws ConnectionException {
+        List<ColumnFamilyDefinition> columnFamilyDefinitionList = keyspace.describeKeyspace().getColumnFamilyList();
+        List<ColumnFamilySchema> schemas = new ArrayList<ColumnFamilySchema>(columnFamilyDefinitionList.size());
+        for (ColumnFamilyDefinition columnFamilyDefinition : columnFamilyDefinitionList) {
+            schemas.add(ColumnFamilySchema.fromDefinition(columnFamilyDefinition));
+        }
+        return schemas;
+    }
 
-                for(int i = 0; i < columnFamilyDefinitionList.size(); i++ )
-                 {
-                     columnFamilyDefinition =  columnFamilyDefinitionList.get(i);
-                     columnFamilyName = columnFamilyDefinition.getName();  //table name
-                     schemaFilePath = schemaPath + File.separator + columnFamilyName + ".db";
-                          classOut = new PrintWriter(new BufferedWriter(new FileWriter(schemaFilePath, false)));
-                          classOut.println("CREATE TABLE " + columnFamilyName + " (");
+    /**
+     * Describes every keyspace of keyspaceNames (or of setKeyspaces()), describeParallelism at a
+     * time. Returns keyspace name to column families, in the configured order.
+     */
+    public Map<String, List<ColumnFamilySchema>> describeKeyspaces() {
+        logger.debug("describeKeyspaces()");
+        if (schemaSnapshot == null)
+            return describeLiveKeyspaces();
+
+        List<String> names = new ArrayList<String>(keyspaces != null ? keyspaces.keySet()
+                : !keyspaceNames.isEmpty() ? keyspaceNames : Collections.singletonList(keyspaceName));
+        SchemaSnapshot snapshot = readSnapshot();
+        if (offline)
+            return fromSnapshot(snapshot, names, "offline");
+
+        String version;
+        try {
+            version = agreedSchemaVersion();
+        } catch (ConnectionException e) {
+            logger.error("failed to read the schema version from C*, reading the schema snapshot", e);
+            return fromSnapshot(snapshot, names, "C* not reachable");
+        }
+        if (snapshot != null && version != null && version.equals(snapshot.getSchemaVersion())
+                && snapshot.hasKeyspaces(names)) {
+            logger.info("schema version " + version + " unchanged, reading the schema snapshot " + schemaSnapshot);
+            return snapshot.getKeyspaces(names);
+        }
 
-                          primaryKeyType = generateShortHand(columnFamilyDefinition.getKeyValidationClass());
-                          classOut.println("key " + primaryKeyType + " PRIMARY KEY,");
+        Map<String, List<ColumnFamilySchema>> described = describeLiveKeyspaces();
+        try {
+            new SchemaSnapshot(version, described).save(new File(schemaSnapshot));
+        } catch (IOException e) {
+            logger.error("failed to save the schema snapshot " + schemaSnapshot, e);
+        }
+        return described;
+    }
 
-                         columnDefinitionList = columnFamilyDefinition.getColumnDefinitionList(); //ColumnDefinitionsList
+    private SchemaSnapshot readSnapshot() {
+        if (!new File(schemaSnapshot).isFile())
+            return null;
+        try {
+            return SchemaSnapshot.load(new File(schemaSnapshot));
+        } catch (IOException e) {
+            logger.error("failed to read the schema snapshot " + schemaSnapshot, e);
+            return null;
+        }
+    }
 
-                         for(int j = 0; j < columnDefinitionList.size(); j++)
-                         {
-                             columnDefinition = columnDefinitionList.get(j);
-                             columnName = columnDefinition.getName();
-                             columnType = generateShortHand(columnDefinition.getValidationClass());
-                             if(j==columnDefinitionList.size() - 1)
-                                 classOut.println("\"" + columnName + "\" " + columnType);
-                             else
-                                classOut.println("\"" + columnName + "\" " + columnType + ",");
-                         }
+    private Map<String, List<ColumnFamilySchema>> fromSnapshot(SchemaSnapshot snapshot, List<String> names,
+                                                               String reason) {
+        if (snapshot == null || !snapshot.hasKeyspaces(names))
+            throw new RuntimeException(reason + " and the schema snapshot " + schemaSnapshot + " does not have keyspaces " + names);
+        logger.info(reason + ", reading the schema snapshot " + schemaSnapshot + " of schema version "
+                + snapshot.getSchemaVersion());
+        return snapshot.getKeyspaces(names);
+    }
 
-                         //WITH COMPACTION STORAGE directive is implicit in legacy tables
-                        // Spoon seems to be generating cql 2.0 (legacy) tables
-                        // until further notice, all tables will include directive
-                         classOut.println(") WITH COMPACT STORAGE AND");
+    private Map<String, List<ColumnFamilySchema>> describeLiveKeyspaces() {
+        final Map<String, Keyspace> keyspaces = this.keyspaces != null ? this.keyspaces
+                : Collections.singletonMap(keyspaceName, keyspace);
+        List<String> names = new ArrayList<String>(keyspaces.keySet());
+        List<Callable<List<ColumnFamilySchema>>> tasks = new ArrayList<Callable<List<ColumnFamilySchema>>>(names.size());
+        for (final String name : names) {
+            tasks.add(new Callable<List<ColumnFamilySchema>>() {
+                @Override
+                public List<ColumnFamilySchema> call() throws Exception {
+                    return describeColumnFamilies(keyspaces.get(name));
+                }
+            });
+        }
 
-                         bloomFilterFpChance = columnFamilyDefinition.getBloomFilterFpChance();
-                         classOut.println("bloom_filter_fp_chance=" + bloomFilterFpChance + " AND");
+        Map<String, List<ColumnFamilySchema>> described = new LinkedHashMap<String, List<ColumnFamilySchema>>();
+        if (tasks.isEmpty())
+            return described;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(describeParallelism, tasks.size())));
+        try {
+            List<Future<List<ColumnFamilySchema>>> futures = executor.invokeAll(tasks);
+
+            // check in keyspace order so the first failing keyspace is the one reported
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    described.put(names.get(i), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    logger.error("failed to describe keyspace " + names.get(i), e.getCause());
+                    throw new RuntimeException("failed to describe keyspace " + names.get(i), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while describing keyspaces", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return described;
+    }
 
-                         caching = columnFamilyDefinition.getCaching();
-                         classOut.println("caching=\'" + caching + "\' AND");
+    /**
+     * Schema version to the hosts that have it, as the cluster reports it. Cheap enough to poll;
+     * it changes with every schema change of any keyspace.
+     */
+    public Map<String, List<String>> describeSchemaVersions() throws ConnectionException {
+        if (clusterContext != null)
+            return clusterContext.getClient().describeSchemaVersions();
+        if (keyspace != null)
+            return keyspace.describeSchemaVersions();
+        // keyspaces of one cluster all report the same versions; should they not, a host's
+        // version is the combination of what each keyspace reports for it
+        Map<String, String> hostVersions = new TreeMap<String, String>();
+        for (Keyspace each : keyspaces.values()) {
+            for (Map.Entry<String, List<String>> version : each.describeSchemaVersions().entrySet()) {
+                for (String host : version.getValue()) {
+                    String combined = hostVersions.get(host);
+                    if (combined == null || combined.equals(version.getKey()))
+                        hostVersions.put(host, version.getKey());
+                    else
+                        hostVersions.put(host, combined + "," + version.getKey());
+                }
+            }
+        }
+        Map<String, List<String>> versions = new TreeMap<String, List<String>>();
+        for (Map.Entry<String, String> host : hostVersions.entrySet()) {
+            List<String> hosts = versions.get(host.getValue());
+            if (hosts == null) {
+                hosts = new ArrayList<String>();
+                versions.put(host.getValue(), hosts);
+            }
+            hosts.add(host.getKey());
+        }
+        return versions;
+    }
 
-                         comment = columnFamilyDefinition.getComment();
-                         classOut.println("comment=\'" + comment + "\' AND");
+    /**
+     * The schema version all reachable hosts agree on, null while they do not agree.
+     */
+    public String agreedSchemaVersion() throws ConnectionException {
+        String agreed = null;
+        for (String version : describeSchemaVersions().keySet()) {
+            // hosts that are down report as UNREACHABLE
+            if (version.equals("UNREACHABLE"))
+                continue;
+            if (agreed != null)
+                return null;
+            agreed = version;
+        }
+        return agreed;
+    }
 
-                         localReadRepairChance = columnFamilyDefinition.getLocalReadRepairChance();
-                         classOut.println("dcLocalReadRepairChance=" + localReadRepairChance + " AND");
+    /**
+     * The out directory of a keyspace, below the given out directory.
+     */
+    public String keyspaceDirectory(String directory, String keyspace) {
+        String relative = keyspaceDirectoryLayout.replace("{keyspace}", keyspace);
+        return relative.length() == 0 ? directory : new File(directory, relative).getPath();
+    }
 
-                         gcGraceSeconds = columnFamilyDefinition.getGcGraceSeconds();
-                         classOut.println("gc_grace_seconds=" + gcGraceSeconds + " AND");
+    /**
+     * The package of the classes of a keyspace, below the given package.
+     */
+    public String keyspacePackage(String packageName, String keyspace) {
+        return keyspacePackageLayout.replace("{package}", packageName).replace("{keyspace}", keyspace.toLowerCase());
+    }
 
-                         readRepairChance = columnFamilyDefinition.getReadRepairChance();
-                         classOut.println("read_repair_chance=" + readRepairChance + " AND");
+    /**
+     * Writes the schema files of a keyspace into its directory below outDirectory.
+     */
+    public void writeSchemaFiles(String keyspace, List<ColumnFamilySchema> schemas) {
+        writeSchemaFiles(new File(keyspaceDirectory(outDirectory, keyspace)), schemas);
+    }
 
-                         replicateOnWrite = columnFamilyDefinition.getReplicateOnWrite();
-                         classOut.println("replicate_on_write=\'" + replicateOnWrite + "\' AND");
+    public void writeSchemaFiles(List<ColumnFamilySchema> schemas) {
+        writeSchemaFiles(new File(outDirectory), schemas);
+    }
 
-                         populate_io_cache_on_flush = columnFamilyDefinition.getFieldValue("POPULATE_IO_CACHE_ON_FLUSH");
-                         classOut.println("populate_io_cache_flush=\'" + populate_io_cache_on_flush + "\' AND");
+    private void writeSchemaFiles(File directory, List<ColumnFamilySchema> schemas) {
+        if (!directory.exists())
+            directory.mkdirs();
 
-                         compactionStrategy = generateShortHand(columnFamilyDefinition.getCompactionStrategy());
-                         classOut.println("compaction={'class': \'" + compactionStrategy + "\'} AND");
+        String schemaPath = directory.getPath() + File.separator + "main";
+        File schemaDir = new File(schemaPath);
+        if (!schemaDir.exists())
+            schemaDir.mkdir();
 
-                         compressionOptions = columnFamilyDefinition.getCompressionOptions();
-                         compressionOptionsCollection = compressionOptions.entrySet();
-                         compressionKey = compressionOptionsCollection.iterator().next().getKey();
-                         compressionValue = generateShortHand(compressionOptionsCollection.iterator().next().getValue());
-                         classOut.println("compression={\'" + compressionKey + "\': \'" + compressionValue + "\'};");
-                         classOut.close();
-        }
+        schemaPath = schemaPath + File.separator + "resources";
+        schemaDir = new File(schemaPath);
+        if (!schemaDir.exists())
+            schemaDir.mkdir();
 
-        }catch (Exception ex) {
-             ex.printStackTrace();
+        schemaPath = schemaPath + File.separator + "schema";
+        schemaDir = new File(schemaPath);
+        if (!schemaDir.exists())
+            schemaDir.mkdir();
 
-        } }catch (ConnectionException e) {
-                logger.error("failed to read from C*", e);
-                throw new RuntimeException("failed to read from C*", e);
+        try {
+            for (ColumnFamilySchema schema : schemas) {
+                String schemaFilePath = schemaPath + File.separator + schema.getName() + ".db";
+                GenerationMetrics.Stage stage = GenerationMetrics.start(metrics, schema.getName(), GenerationMetrics.SCHEMA_WRITE);
+                try {
+                    PrintWriter classOut = new PrintWriter(new BufferedWriter(new FileWriter(schemaFilePath, false)));
+                    writeSchema(schema, classOut);
+                    classOut.close();
+                    stage.addFileWritten(new File(schemaFilePath).length());
+                } finally {
+                    stage.end();
+                }
             }
+        } catch (Exception ex) {
+            ex.printStackTrace();
         }
+    }
 
-    private String generateShortHand(String longhand) {
-        if (longhand.equals("org.apache.cassandra.db.marshal.UTF8Type")) {
-            return "text";
-        } else if (longhand.equals("org.apache.cassandra.db.marshal.DecimalType")) {
-            return "decimal";
-        } else if (longhand.equals("org.apache.cassandra.db.marshal.LongType")) {
-            return "bigint";
-        } else if (longhand.equals("org.apache.cassandra.db.marshal.DateType")) {
-            return "timestamp";
-        } else if (longhand.equals("org.apache.cassandra.db.marshal.BooleanType")) {
-            return "boolean";
-        } else if (longhand.equals("org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy")) {
-            return "SizeTieredCompactionStrategy";
-        } else if (longhand.equals("org.apache.cassandra.io.compress.SnappyCompressor")) {
-            return "SnappyCompressor";
+    void writeSchema(ColumnFamilySchema schema, PrintWriter classOut) {
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("name", schema.getName());  //table name
+        model.put("keyType", generateShortHand(schema.getKeyValidationClass()));
+
+        List<Map<String, String>> columns = new ArrayList<Map<String, String>>(schema.getColumns().size());
+        Iterator<Map.Entry<String, String>> entries = schema.getColumns().entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, String> entry = entries.next();
+            Map<String, String> column = new HashMap<String, String>();
+            column.put("name", entry.getKey());
+            column.put("type", generateShortHand(entry.getValue()));
+            column.put("separator", entries.hasNext() ? "," : "");
+            columns.add(column);
+        }
+        model.put("columns", columns);
+
+        //WITH COMPACTION STORAGE directive is implicit in legacy tables
+        // Spoon seems to be generating cql 2.0 (legacy) tables
+        // until further notice, all tables will include directive
+        model.put("bloomFilterFpChance", schema.getBloomFilterFpChance());
+        model.put("caching", schema.getCaching());
+        model.put("comment", schema.getComment());
+        model.put("localReadRepairChance", schema.getLocalReadRepairChance());
+        model.put("gcGraceSeconds", schema.getGcGraceSeconds());
+        model.put("readRepairChance", schema.getReadRepairChance());
+        model.put("replicateOnWrite", schema.getReplicateOnWrite());
+        model.put("populateIoCacheOnFlush", schema.getPopulateIoCacheOnFlush());
+        model.put("compactionStrategy", generateShortHand(schema.getCompactionStrategy()));
+
+        Map.Entry<String, String> compression = schema.getCompressionOptions().entrySet().iterator().next();
+        model.put("compressionKey", compression.getKey());
+        model.put("compressionValue", generateShortHand(compression.getValue()));
+
+        classOut.print(templates.render("schema", model));
+    }
+
+    private static final String MARSHAL = "org.apache.cassandra.db.marshal.";
+
+    // CQL names of the marshal types, compaction strategies and compressors
+    private static final Map<String, String> SHORTHANDS = new HashMap<String, String>();
+
+    static {
+        SHORTHANDS.put(MARSHAL + "UTF8Type", "text");
+        SHORTHANDS.put(MARSHAL + "AsciiType", "ascii");
+        SHORTHANDS.put(MARSHAL + "Int32Type", "int");
+        SHORTHANDS.put(MARSHAL + "LongType", "bigint");
+        SHORTHANDS.put(MARSHAL + "IntegerType", "varint");
+        SHORTHANDS.put(MARSHAL + "FloatType", "float");
+        SHORTHANDS.put(MARSHAL + "DoubleType", "double");
+        SHORTHANDS.put(MARSHAL + "DecimalType", "decimal");
+        SHORTHANDS.put(MARSHAL + "BooleanType", "boolean");
+        SHORTHANDS.put(MARSHAL + "DateType", "timestamp");
+        SHORTHANDS.put(MARSHAL + "TimestampType", "timestamp");
+        SHORTHANDS.put(MARSHAL + "UUIDType", "uuid");
+        SHORTHANDS.put(MARSHAL + "TimeUUIDType", "timeuuid");
+        SHORTHANDS.put(MARSHAL + "InetAddressType", "inet");
+        SHORTHANDS.put(MARSHAL + "CounterColumnType", "counter");
+        SHORTHANDS.put(MARSHAL + "BytesType", "blob");
+        SHORTHANDS.put("org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy", "SizeTieredCompactionStrategy");
+        SHORTHANDS.put("org.apache.cassandra.db.compaction.LeveledCompactionStrategy", "LeveledCompactionStrategy");
+        SHORTHANDS.put("org.apache.cassandra.io.compress.SnappyCompressor", "SnappyCompressor");
+        SHORTHANDS.put("org.apache.cassandra.io.compress.LZ4Compressor", "LZ4Compressor");
+        SHORTHANDS.put("org.apache.cassandra.io.compress.DeflateCompressor", "DeflateCompressor");
+    }
+
+    /**
+     * Returns the CQL name of a validation class, compaction strategy or compressor. Parameterized
+     * marshal types map to their CQL form: ListType(UTF8Type) is list<text>, MapType(UTF8Type,LongType)
+     * is map<text,bigint>, and ReversedType(X) is the CQL name of X.
+     */
+    static String generateShortHand(String longhand) {
+        String shorthand = SHORTHANDS.get(longhand);
+        if (shorthand != null)
+            return shorthand;
+
+        int open = longhand.indexOf('(');
+        if (open > 0 && longhand.endsWith(")")) {
+            String outer = longhand.substring(0, open);
+            String[] parameters = splitParameters(longhand.substring(open + 1, longhand.length() - 1));
+            String[] cqlParameters = new String[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                cqlParameters[i] = generateShortHand(parameters[i].trim());
+                if (cqlParameters[i].startsWith("longhand "))
+                    return "longhand " + longhand + " not recognized";
+            }
+            if (outer.equals(MARSHAL + "ReversedType") && cqlParameters.length == 1)
+                return cqlParameters[0];
+            if (outer.equals(MARSHAL + "ListType") && cqlParameters.length == 1)
+                return "list<" + cqlParameters[0] + ">";
+            if (outer.equals(MARSHAL + "SetType") && cqlParameters.length == 1)
+                return "set<" + cqlParameters[0] + ">";
+            if (outer.equals(MARSHAL + "MapType") && cqlParameters.length == 2)
+                return "map<" + cqlParameters[0] + "," + cqlParameters[1] + ">";
         }
         return "longhand " + longhand + " not recognized";
     }
+
+    /**
+     * Splits the parameters of a marshal type on the commas outside nested parentheses.
+     */
+    private static String[] splitParameters(String parameters) {
+        List<String> split = new ArrayList<String>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < parameters.length(); i++) {
+            char c = parameters.charAt(i);
+            if (c == '(')
+                depth++;
+            else if (c == ')')
+                depth--;
+            else if (c == ',' && depth == 0) {
+                split.add(parameters.substring(start, i));
+                start = i + 1;
+            }
+        }
+        split.add(parameters.substring(start));
+        return split.toArray(new String[split.size()]);
+    }
+
+    public boolean isWriteSchemaFiles() {
+        return writeSchemaFiles;
+    }
+
+    public void setWriteSchemaFiles(boolean writeSchemaFiles) {
+        this.writeSchemaFiles = writeSchemaFiles;
+    }
+
+    /**
+     * Reads the schema from this keyspace instead of connecting in init().
+     */
+    public void setKeyspace(Keyspace keyspace) {
+        this.keyspace = keyspace;
+    }
+
+    /**
+     * Reads the schema from these keyspaces, name to keyspace, instead of connecting in init();
+     * for example FakeKeyspaces in tests.
+     */
+    public void setKeyspaces(Map<String, Keyspace> keyspaces) {
+        this.keyspaces = new LinkedHashMap<String, Keyspace>(keyspaces);
+        this.keyspaceNames = new ArrayList<String>(keyspaces.keySet());
+    }
+
+    public String getClusterName() {
+        return clusterName;
+    }
+
+    public void setClusterName(String clusterName) {
+        this.clusterName = clusterName;
+    }
+
+    public String getSeeds() {
+        return seeds;
+    }
+
+    public void setSeeds(String seeds) {
+        this.seeds = seeds;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getMaxConnsPerHost() {
+        return maxConnsPerHost;
+    }
+
+    public void setMaxConnsPerHost(int maxConnsPerHost) {
+        this.maxConnsPerHost = maxConnsPerHost;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+        this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    public int getMaxTimeoutWhenExhaustedMillis() {
+        return maxTimeoutWhenExhaustedMillis;
+    }
+
+    public void setMaxTimeoutWhenExhaustedMillis(int maxTimeoutWhenExhaustedMillis) {
+        this.maxTimeoutWhenExhaustedMillis = maxTimeoutWhenExhaustedMillis;
+    }
+
+    public String getCqlVersion() {
+        return cqlVersion;
+    }
+
+    public void setCqlVersion(String cqlVersion) {
+        this.cqlVersion = cqlVersion;
+    }
+
+    public String getTargetCassandraVersion() {
+        return targetCassandraVersion;
+    }
+
+    public void setTargetCassandraVersion(String targetCassandraVersion) {
+        this.targetCassandraVersion = targetCassandraVersion;
+    }
+
+    public List<String> getKeyspaceNames() {
+        return keyspaceNames;
+    }
+
+    public void setKeyspaceNames(List<String> keyspaceNames) {
+        this.keyspaceNames = keyspaceNames;
+    }
+
+    public String getKeyspaceName() {
+        return keyspaceName;
+    }
+
+    public void setKeyspaceName(String keyspaceName) {
+        this.keyspaceName = keyspaceName;
+    }
+
+    public int getDescribeParallelism() {
+        return describeParallelism;
+    }
+
+    public void setDescribeParallelism(int describeParallelism) {
+        this.describeParallelism = describeParallelism;
+    }
+
+    public String getKeyspaceDirectoryLayout() {
+        return keyspaceDirectoryLayout;
+    }
+
+    public void setKeyspaceDirectoryLayout(String keyspaceDirectoryLayout) {
+        this.keyspaceDirectoryLayout = keyspaceDirectoryLayout;
+    }
+
+    public String getKeyspacePackageLayout() {
+        return keyspacePackageLayout;
+    }
+
+    public void setKeyspacePackageLayout(String keyspacePackageLayout) {
+        this.keyspacePackageLayout = keyspacePackageLayout;
+    }
+
+    public String getTemplateDirectory() {
+        return templateDirectory;
+    }
+
+    public void setTemplateDirectory(String templateDirectory) {
+        this.templateDirectory = templateDirectory;
+        templates = new TemplateEngine(templateDirectory == null ? null : new File(templateDirectory));
+    }
+
+    public GenerationMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(GenerationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public String getSchemaSnapshot() {
+        return schemaSnapshot;
+    }
+
+    public void setSchemaSnapshot(String schemaSnapshot) {
+        this.schemaSnapshot = schemaSnapshot;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
 }
@@ -0,0 +1,265 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * The column families of one or more keyspaces as described from the cluster, with their columns
+ * and table options, and the schema version of the cluster at the time. SchemaFileGenerator saves
+ * one after describing the cluster and reads it back instead when the cluster is still at that
+ * version, cannot be reached, or is not to be used at all; FakeKeyspace.create() serves a keyspace
+ * of it to code that expects a live one.
+ *
+ * The file is binary, written with DataOutputStream:
+ * <pre>
+ * int     magic "CFSS", int format version
+ * string  schema version
+ * int     keyspace count, then per keyspace: string name, int column family count, then per column
+ *         family: name, key validation class, int column count and per column name and validation
+ *         class, the table options in ColumnFamilySchema order, int compression option count and
+ *         per option name and value
+ * </pre>
+ * Strings are written once: a string is an int index into the strings read so far, -1 for null; an
+ * index one past the end is followed by the UTF-8 length and bytes of a new string. Optional
+ * numbers are preceded by a boolean that is false when they are null, optional booleans are a byte
+ * that is -1 when they are null.
+ */
+public class SchemaSnapshot {
+
+    private static final int MAGIC = 0x43465353;
+    private static final int FORMAT = 1;
+
+    private static final int NULL = 0;
+    private static final int BOOLEAN = 1;
+    private static final int STRING = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String schemaVersion;
+    private final Map<String, List<ColumnFamilySchema>> keyspaces;
+
+    /**
+     * @param schemaVersion the version the cluster agreed on when the keyspaces were described, null
+     *                      if unknown
+     */
+    public SchemaSnapshot(String schemaVersion, Map<String, List<ColumnFamilySchema>> keyspaces) {
+        this.schemaVersion = schemaVersion;
+        this.keyspaces = new LinkedHashMap<String, List<ColumnFamilySchema>>(keyspaces);
+    }
+
+    public String getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    public Map<String, List<ColumnFamilySchema>> getKeyspaces() {
+        return keyspaces;
+    }
+
+    public List<ColumnFamilySchema> getKeyspace(String name) {
+        return keyspaces.get(name);
+    }
+
+    public boolean hasKeyspaces(Collection<String> names) {
+        return keyspaces.keySet().containsAll(names);
+    }
+
+    /**
+     * The given keyspaces, in the given order.
+     */
+    public Map<String, List<ColumnFamilySchema>> getKeyspaces(Collection<String> names) {
+        Map<String, List<ColumnFamilySchema>> selected = new LinkedHashMap<String, List<ColumnFamilySchema>>();
+        for (String name : names) {
+            selected.put(name, keyspaces.get(name));
+        }
+        return selected;
+    }
+
+    /**
+     * Writes the snapshot to a temporary file next to file and moves it over file, so that a run
+     * that is interrupted never leaves half a snapshot behind.
+     */
+    public void save(File file) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        if (target.getParent() != null)
+            Files.createDirectories(target.getParent());
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)));
+        try {
+            Map<String, Integer> strings = new HashMap<String, Integer>();
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            writeString(out, strings, schemaVersion);
+            out.writeInt(keyspaces.size());
+            for (Map.Entry<String, List<ColumnFamilySchema>> keyspace : keyspaces.entrySet()) {
+                writeString(out, strings, keyspace.getKey());
+                out.writeInt(keyspace.getValue().size());
+                for (ColumnFamilySchema schema : keyspace.getValue()) {
+                    write(out, strings, schema);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static SchemaSnapshot load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a schema snapshot");
+            int format = in.readInt();
+            if (format != FORMAT)
+                throw new IOException(file + " has snapshot format " + format + ", expected " + FORMAT);
+
+            List<String> strings = new ArrayList<String>();
+            String schemaVersion = readString(in, strings);
+            int keyspaceCount = in.readInt();
+            Map<String, List<ColumnFamilySchema>> keyspaces = new LinkedHashMap<String, List<ColumnFamilySchema>>();
+            for (int i = 0; i < keyspaceCount; i++) {
+                String name = readString(in, strings);
+                int schemaCount = in.readInt();
+                List<ColumnFamilySchema> schemas = new ArrayList<ColumnFamilySchema>(schemaCount);
+                for (int j = 0; j < schemaCount; j++) {
+                    schemas.add(read(in, strings));
+                }
+                keyspaces.put(name, schemas);
+            }
+            return new SchemaSnapshot(schemaVersion, keyspaces);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(DataOutputStream out, Map<String, Integer> strings, ColumnFamilySchema schema)
+            throws IOException {
+        writeString(out, strings, schema.getName());
+        writeString(out, strings, schema.getKeyValidationClass());
+        out.writeInt(schema.getColumns().size());
+        for (Map.Entry<String, String> column : schema.getColumns().entrySet()) {
+            writeString(out, strings, column.getKey());
+            writeString(out, strings, column.getValue());
+        }
+
+        writeDouble(out, schema.getBloomFilterFpChance());
+        writeString(out, strings, schema.getCaching());
+        writeString(out, strings, schema.getComment());
+        writeDouble(out, schema.getLocalReadRepairChance());
+        out.writeBoolean(schema.getGcGraceSeconds() != null);
+        if (schema.getGcGraceSeconds() != null)
+            out.writeInt(schema.getGcGraceSeconds());
+        writeDouble(out, schema.getReadRepairChance());
+        writeBoolean(out, schema.getReplicateOnWrite());
+
+        // a field value of the definition, of whatever type the Thrift struct has for it
+        Object populateIoCacheOnFlush = schema.getPopulateIoCacheOnFlush();
+        if (populateIoCacheOnFlush == null) {
+            out.writeByte(NULL);
+        } else if (populateIoCacheOnFlush instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) populateIoCacheOnFlush);
+        } else {
+            out.writeByte(STRING);
+            writeString(out, strings, String.valueOf(populateIoCacheOnFlush));
+        }
+
+        writeString(out, strings, schema.getCompactionStrategy());
+        out.writeInt(schema.getCompressionOptions().size());
+        for (Map.Entry<String, String> option : schema.getCompressionOptions().entrySet()) {
+            writeString(out, strings, option.getKey());
+            writeString(out, strings, option.getValue());
+        }
+    }
+
+    private static ColumnFamilySchema read(DataInputStream in, List<String> strings) throws IOException {
+        ColumnFamilySchema schema = new ColumnFamilySchema(readString(in, strings));
+        schema.setKeyValidationClass(readString(in, strings));
+        int columnCount = in.readInt();
+        for (int i = 0; i < columnCount; i++) {
+            schema.addColumn(readString(in, strings), readString(in, strings));
+        }
+
+        schema.setBloomFilterFpChance(readDouble(in));
+        schema.setCaching(readString(in, strings));
+        schema.setComment(readString(in, strings));
+        schema.setLocalReadRepairChance(readDouble(in));
+        schema.setGcGraceSeconds(in.readBoolean() ? Integer.valueOf(in.readInt()) : null);
+        schema.setReadRepairChance(readDouble(in));
+        schema.setReplicateOnWrite(readBoolean(in));
+
+        int kind = in.readByte();
+        if (kind == BOOLEAN)
+            schema.setPopulateIoCacheOnFlush(in.readBoolean());
+        else if (kind == STRING)
+            schema.setPopulateIoCacheOnFlush(readString(in, strings));
+        else if (kind != NULL)
+            throw new IOException("corrupt schema snapshot: value kind " + kind);
+
+        schema.setCompactionStrategy(readString(in, strings));
+        int optionCount = in.readInt();
+        for (int i = 0; i < optionCount; i++) {
+            schema.getCompressionOptions().put(readString(in, strings), readString(in, strings));
+        }
+        return schema;
+    }
+
+    private static void writeString(DataOutputStream out, Map<String, Integer> strings, String value)
+            throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        Integer index = strings.get(value);
+        if (index != null) {
+            out.writeInt(index);
+            return;
+        }
+        strings.put(value, strings.size());
+        out.writeInt(strings.size() - 1);
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, List<String> strings) throws IOException {
+        int index = in.readInt();
+        if (index < 0)
+            return null;
+        if (index < strings.size())
+            return strings.get(index);
+        if (index > strings.size())
+            throw new IOException("corrupt schema snapshot: string " + index + " of " + strings.size());
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        String value = new String(bytes, UTF_8);
+        strings.add(value);
+        return value;
+    }
+
+    private static void writeDouble(DataOutputStream out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeDouble(value);
+    }
+
+    private static Double readDouble(DataInputStream in) throws IOException {
+        return in.readBoolean() ? Double.valueOf(in.readDouble()) : null;
+    }
+
+    private static void writeBoolean(DataOutputStream out, Boolean value) throws IOException {
+        out.writeByte(value == null ? -1 : value ? 1 : 0);
+    }
+
+    private static Boolean readBoolean(DataInputStream in) throws IOException {
+        int value = in.readByte();
+        return value < 0 ? null : Boolean.valueOf(value == 1);
+    }
+}
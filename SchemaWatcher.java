@@ -0,0 +1,170 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps generated code in step with a live schema. Polls either the cluster's schema versions or a
+ * directory of schema files, and regenerates when they change. Generation runs incrementally, so
+ * only column families that actually changed are rewritten, and the sources of those dropped, or
+ * whose schema file was deleted, are removed, down to the last one; the connection pool stays open
+ * between runs.
+ */
+public class SchemaWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaWatcher.class);
+
+    private final SchemaFileGenerator schemaFileGenerator;
+
+    private final CassandraDataTypeMapper generator;
+
+    private long pollIntervalMillis = 500;
+
+    private volatile boolean running;
+
+    // keyspace -> column family -> CQL of the last run
+    private final Map<String, Map<String, String>> generated = new HashMap<String, Map<String, String>>();
+
+    public SchemaWatcher(SchemaFileGenerator schemaFileGenerator, CassandraDataTypeMapper generator) {
+        this.schemaFileGenerator = schemaFileGenerator;
+        this.generator = generator;
+        generator.getCodeGenerator().setIncremental(true);
+    }
+
+    /**
+     * Polls the cluster until stopped. A change is picked up once all reachable hosts agree on
+     * the new schema version; only the keyspaces with changed column families are regenerated.
+     */
+    public void watchCluster() throws InterruptedException {
+        running = true;
+        Map<String, List<String>> versions = null;
+        while (running) {
+            try {
+                Map<String, List<String>> current = schemaFileGenerator.describeSchemaVersions();
+                if (!current.equals(versions) && agreed(current)) {
+                    regenerateChanged();
+                    versions = current;
+                }
+            } catch (Exception ex) {
+                logger.error("failed to regenerate from C*", ex);
+            }
+            Thread.sleep(pollIntervalMillis);
+        }
+    }
+
+    /**
+     * Polls a directory of schema files until stopped, and regenerates from it when a file is
+     * added, removed or modified. Deleting every file regenerates too, which removes all generated
+     * sources; a directory that cannot be listed is skipped until it can.
+     */
+    public void watchDirectory(File schemaDir) throws InterruptedException {
+        running = true;
+        Map<String, String> stamps = null;
+        while (running) {
+            Map<String, String> current = stamps(schemaDir);
+            if (current != null && !current.equals(stamps)) {
+                try {
+                    generator.generate(schemaDir);
+                    logger.info("regenerated from " + schemaDir);
+                } catch (Exception ex) {
+                    logger.error("failed to regenerate from " + schemaDir, ex);
+                }
+                stamps = current;
+            }
+            Thread.sleep(pollIntervalMillis);
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    private void regenerateChanged() throws JPAGenerationException {
+        Map<String, List<ColumnFamilySchema>> keyspaces = schemaFileGenerator.describeKeyspaces();
+        boolean multiple = !schemaFileGenerator.getKeyspaceNames().isEmpty();
+
+        for (Map.Entry<String, List<ColumnFamilySchema>> keyspace : keyspaces.entrySet()) {
+            Map<String, String> current = new LinkedHashMap<String, String>();
+            for (ColumnFamilySchema schema : keyspace.getValue()) {
+                current.put(schema.getName(), cql(schema));
+            }
+
+            Map<String, String> previous = generated.get(keyspace.getKey());
+            if (previous != null) {
+                if (previous.equals(current))
+                    continue;
+                logChanges(keyspace.getKey(), previous, current);
+            }
+
+            if (multiple) {
+                JPAClassGeneratorRunner.generateKeyspace(schemaFileGenerator, generator, keyspace.getKey(),
+                        keyspace.getValue(), true);
+            } else {
+                if (schemaFileGenerator.isWriteSchemaFiles())
+                    schemaFileGenerator.writeSchemaFiles(keyspace.getValue());
+                generator.generate(keyspace.getValue());
+            }
+            generated.put(keyspace.getKey(), current);
+            logger.info("regenerated keyspace " + keyspace.getKey());
+        }
+    }
+
+    private void logChanges(String keyspace, Map<String, String> previous, Map<String, String> current) {
+        for (Map.Entry<String, String> columnFamily : current.entrySet()) {
+            String before = previous.get(columnFamily.getKey());
+            if (before == null)
+                logger.info(keyspace + "." + columnFamily.getKey() + " created");
+            else if (!before.equals(columnFamily.getValue()))
+                logger.info(keyspace + "." + columnFamily.getKey() + " altered");
+        }
+        for (String columnFamily : previous.keySet()) {
+            if (!current.containsKey(columnFamily))
+                logger.info(keyspace + "." + columnFamily + " dropped");
+        }
+    }
+
+    private String cql(ColumnFamilySchema schema) {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        schemaFileGenerator.writeSchema(schema, out);
+        out.close();
+        return text.toString();
+    }
+
+    // hosts that are down report as UNREACHABLE and do not count against agreement
+    private static boolean agreed(Map<String, List<String>> versions) {
+        int reachable = 0;
+        for (String version : versions.keySet()) {
+            if (!version.equals("UNREACHABLE"))
+                reachable++;
+        }
+        return reachable == 1;
+    }
+
+    // null when the directory cannot be listed, which is not the same as it being empty
+    private static Map<String, String> stamps(File schemaDir) {
+        File[] files = schemaDir.listFiles();
+        if (files == null)
+            return null;
+        Map<String, String> stamps = new TreeMap<String, String>();
+        for (File file : files) {
+            stamps.put(file.getName(), file.lastModified() + ":" + file.length());
+        }
+        return stamps;
+    }
+
+    public long getPollIntervalMillis() {
+        return pollIntervalMillis;
+    }
+
+    public void setPollIntervalMillis(long pollIntervalMillis) {
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+}
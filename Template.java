@@ -0,0 +1,188 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A template compiled into its render plan: the text is parsed once into literal runs and tags,
+ * and rendering walks the plan appending to a buffer. The tags are
+ *
+ *  ${name}              the value of name, by String.valueOf
+ *  ${#name}...${/name}  the section once for every element of the list name; inside it the names
+ *                       of an element that is a map are visible and ${.} is the element itself
+ *  ${?name}...${/name}  the section if name is true, a non-empty list or a non-empty string
+ *  ${^name}...${/name}  the section if it is not
+ *  ${>name}             the template name, rendered with the same values
+ *
+ * Names are looked up from the innermost section outwards. Every other character, including
+ * line ends, is copied as it is.
+ */
+public class Template {
+
+    private static final int TEXT = 0;
+    private static final int VALUE = 1;
+    private static final int EACH = 2;
+    private static final int IF = 3;
+    private static final int UNLESS = 4;
+    private static final int INCLUDE = 5;
+
+    private static class Node {
+        private final int kind;
+        // the literal text for TEXT, else the name
+        private final String text;
+        private final Node[] children;
+
+        private Node(int kind, String text, Node[] children) {
+            this.kind = kind;
+            this.text = text;
+            this.children = children;
+        }
+    }
+
+    private final String name;
+    private final Node[] plan;
+
+    private Template(String name, Node[] plan) {
+        this.name = name;
+        this.plan = plan;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static Template compile(String name, String text) {
+        List<List<Node>> open = new LinkedList<List<Node>>();
+        List<String> openNames = new LinkedList<String>();
+        List<Integer> openKinds = new LinkedList<Integer>();
+        List<Node> nodes = new ArrayList<Node>();
+
+        int position = 0;
+        while (position < text.length()) {
+            int start = text.indexOf("${", position);
+            if (start < 0) {
+                nodes.add(new Node(TEXT, text.substring(position), null));
+                break;
+            }
+            if (start > position)
+                nodes.add(new Node(TEXT, text.substring(position, start), null));
+            int end = text.indexOf('}', start);
+            if (end < 0)
+                throw new IllegalArgumentException("template " + name + ": unclosed tag at " + start);
+            String tag = text.substring(start + 2, end).trim();
+            position = end + 1;
+            if (tag.length() == 0)
+                throw new IllegalArgumentException("template " + name + ": empty tag at " + start);
+
+            char marker = tag.charAt(0);
+            String tagName = tag.substring(1).trim();
+            if (marker == '#' || marker == '?' || marker == '^') {
+                open.add(0, nodes);
+                openNames.add(0, tagName);
+                openKinds.add(0, marker == '#' ? EACH : marker == '?' ? IF : UNLESS);
+                nodes = new ArrayList<Node>();
+            } else if (marker == '/') {
+                if (openNames.isEmpty() || !openNames.get(0).equals(tagName))
+                    throw new IllegalArgumentException("template " + name + ": unexpected ${/" + tagName + "} at " + start);
+                Node section = new Node(openKinds.remove(0), openNames.remove(0), nodes.toArray(new Node[nodes.size()]));
+                nodes = open.remove(0);
+                nodes.add(section);
+            } else if (marker == '>') {
+                nodes.add(new Node(INCLUDE, tagName, null));
+            } else {
+                nodes.add(new Node(VALUE, tag, null));
+            }
+        }
+        if (!openNames.isEmpty())
+            throw new IllegalArgumentException("template " + name + ": ${" + openNames.get(0) + "} is not closed");
+
+        return new Template(name, nodes.toArray(new Node[nodes.size()]));
+    }
+
+    /**
+     * Renders the template with the given values onto the end of out. engine resolves included
+     * templates.
+     */
+    public void render(Map<String, ?> values, StringBuilder out, TemplateEngine engine) {
+        List<Object> scopes = new ArrayList<Object>();
+        scopes.add(values);
+        render(plan, scopes, out, engine);
+    }
+
+    private void render(Node[] nodes, List<Object> scopes, StringBuilder out, TemplateEngine engine) {
+        for (Node node : nodes) {
+            switch (node.kind) {
+                case TEXT:
+                    out.append(node.text);
+                    break;
+                case VALUE:
+                    Object value = lookup(node.text, scopes);
+                    if (value == null && !defined(node.text, scopes))
+                        throw new IllegalArgumentException("template " + name + ": no value for " + node.text);
+                    out.append(String.valueOf(value));
+                    break;
+                case EACH:
+                    Object elements = lookup(node.text, scopes);
+                    if (elements == null)
+                        break;
+                    if (!(elements instanceof Iterable))
+                        throw new IllegalArgumentException("template " + name + ": " + node.text + " is not a list");
+                    for (Object element : (Iterable<?>) elements) {
+                        scopes.add(element);
+                        render(node.children, scopes, out, engine);
+                        scopes.remove(scopes.size() - 1);
+                    }
+                    break;
+                case IF:
+                    if (isTrue(lookup(node.text, scopes)))
+                        render(node.children, scopes, out, engine);
+                    break;
+                case UNLESS:
+                    if (!isTrue(lookup(node.text, scopes)))
+                        render(node.children, scopes, out, engine);
+                    break;
+                case INCLUDE:
+                    engine.get(node.text).render(scopes, out, engine);
+                    break;
+            }
+        }
+    }
+
+    private void render(List<Object> scopes, StringBuilder out, TemplateEngine engine) {
+        render(plan, new ArrayList<Object>(scopes), out, engine);
+    }
+
+    private static Object lookup(String name, List<Object> scopes) {
+        if (name.equals("."))
+            return scopes.get(scopes.size() - 1);
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Object scope = scopes.get(i);
+            if (scope instanceof Map && ((Map<?, ?>) scope).containsKey(name))
+                return ((Map<?, ?>) scope).get(name);
+        }
+        return null;
+    }
+
+    private static boolean defined(String name, List<Object> scopes) {
+        if (name.equals("."))
+            return true;
+        for (Object scope : scopes) {
+            if (scope instanceof Map && ((Map<?, ?>) scope).containsKey(name))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isTrue(Object value) {
+        if (value == null)
+            return false;
+        if (value instanceof Boolean)
+            return (Boolean) value;
+        if (value instanceof Collection)
+            return !((Collection<?>) value).isEmpty();
+        if (value instanceof CharSequence)
+            return ((CharSequence) value).length() > 0;
+        return true;
+    }
+}
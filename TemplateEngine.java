@@ -0,0 +1,149 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads and compiles the templates of the generated artifacts, once each, and renders them into
+ * pooled buffers.
+ *
+ * The built-in templates are read from templates/<name>.template on the class path and are shared
+ * by all engines. A template of the same name in the template directory overrides the built-in
+ * one. JPACodeGenerator renders every class it writes from a template: per column family domain,
+ * dao, service, daoImpl, codec, serviceImpl, domainTest, daoTest, serviceTest, benchmark and
+ * workload, and once per run the support classes, each from the template named after it
+ * (asyncExecutor for AsyncExecutor). Templates named after the parts they render are included:
+ * declarations, codecMethods, bulkWriteMethods, multiGetMethods, pagingMethods, scanMethods,
+ * instrumentedMethods, asyncMethods, testIsolationFields and idsOf. SchemaFileGenerator renders
+ * schema.
+ */
+public class TemplateEngine {
+
+    private static final String BUILT_IN = "templates/";
+    private static final String EXTENSION = ".template";
+
+    // buffers larger than this are not kept for the next render
+    private static final int MAX_POOLED_CAPACITY = 1 << 20;
+
+    private static final Map<String, Template> builtIns = new ConcurrentHashMap<String, Template>();
+
+    private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(16 * 1024);
+        }
+    };
+
+    private final File templateDirectory;
+    private final Map<String, Template> overrides = new ConcurrentHashMap<String, Template>();
+
+    public TemplateEngine() {
+        this(null);
+    }
+
+    /**
+     * @param templateDirectory directory of templates overriding the built-in ones, null for none
+     */
+    public TemplateEngine(File templateDirectory) {
+        this.templateDirectory = templateDirectory;
+    }
+
+    public File getTemplateDirectory() {
+        return templateDirectory;
+    }
+
+    /**
+     * Whether the template directory has a template of the given name.
+     */
+    public boolean isOverridden(String name) {
+        return templateDirectory != null && overrideFile(name).isFile();
+    }
+
+    public Template get(String name) {
+        Template template = overrides.get(name);
+        if (template != null)
+            return template;
+        if (isOverridden(name)) {
+            template = Template.compile(name, read(overrideFile(name)));
+            overrides.put(name, template);
+            return template;
+        }
+
+        template = builtIns.get(name);
+        if (template == null) {
+            template = Template.compile(name, readBuiltIn(name));
+            builtIns.put(name, template);
+        }
+        return template;
+    }
+
+    public String render(String name, Map<String, ?> values) {
+        StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+        try {
+            get(name).render(values, buffer, this);
+            return buffer.toString();
+        } finally {
+            if (buffer.capacity() > MAX_POOLED_CAPACITY)
+                buffers.remove();
+        }
+    }
+
+    /**
+     * Hash of the overriding templates, so that changing them regenerates in incremental mode.
+     */
+    public String fingerprint() {
+        if (templateDirectory == null)
+            return "";
+        Map<String, String> texts = new TreeMap<String, String>();
+        File[] files = templateDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && file.getName().endsWith(EXTENSION))
+                    texts.put(file.getName(), read(file));
+            }
+        }
+        return texts.isEmpty() ? "" : GenerationManifest.hash(texts.toString());
+    }
+
+    private File overrideFile(String name) {
+        return new File(templateDirectory, name + EXTENSION);
+    }
+
+    private static String read(File file) {
+        try {
+            return read(new FileInputStream(file));
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to read template " + file, e);
+        }
+    }
+
+    private static String readBuiltIn(String name) {
+        InputStream in = TemplateEngine.class.getClassLoader().getResourceAsStream(BUILT_IN + name + EXTENSION);
+        if (in == null)
+            throw new IllegalStateException("no template " + name + " on the class path");
+        try {
+            return read(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to read template " + name, e);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                bytes.write(chunk, 0, n);
+            }
+            return bytes.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
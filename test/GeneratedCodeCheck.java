@@ -0,0 +1,307 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Generates a keyspace with a column of every type CqlTypeMapping maps and compiles the result
+ * against the libraries of the project the code is generated for, to catch generated code that
+ * only compiles against the stubs of GeneratedSourceVerifier.
+ *
+ * The keyspace is a FakeKeyspace, so the whole pipeline runs as it does against a cluster:
+ * SchemaFileGenerator describes it and writes the schema files, CassandraDataTypeMapper reads
+ * them back and JPACodeGenerator generates with verifyCompilation on. This is repeated for every
+ * option that changes what is generated, one test per variant. Last, a SchemaWatcher watches the
+ * schema files while they are deleted one by one, and the sources of each column family must go
+ * with its file, the last one included.
+ *
+ * Runs with JUnit 4. The class path must hold the generator's classes, the root of this
+ * repository (the built-in templates are loaded from it as the class path resources
+ * templates/*.template) and the libraries of the generated project: Astyanax, JPA, Spring, JUnit
+ * and JMH. The generated code is compiled against that class path unless the system property
+ * generatedCodeCheck.classpath names another; the output goes to the directory named by
+ * generatedCodeCheck.output, by default generated-code-check in java.io.tmpdir.
+ */
+@RunWith(Parameterized.class)
+public class GeneratedCodeCheck {
+
+    private static final String MARSHAL = "org.apache.cassandra.db.marshal.";
+    private static final String PACKAGE = "com.acme.check";
+    private static final String CACHED_CLASS = "EveryType";
+
+    // the CQL types a column can have, and the validation classes they are described with
+    private static final String[][] TYPES = {
+            {"text", "UTF8Type"}, {"ascii", "AsciiType"}, {"int", "Int32Type"}, {"bigint", "LongType"},
+            {"varint", "IntegerType"}, {"float", "FloatType"}, {"double", "DoubleType"},
+            {"decimal", "DecimalType"}, {"boolean", "BooleanType"}, {"timestamp", "DateType"},
+            {"uuid", "UUIDType"}, {"timeuuid", "TimeUUIDType"}, {"blob", "BytesType"}};
+
+    // the options a variant is generated with; those turning a feature off are combined with the
+    // ones that add to the code of every feature, minimal turns every feature off and adds nothing;
+    // codecs-no-multi-gets is where getAsync(ids) executes its own key slice
+    private static final String[] VARIANTS = {"default", "codecs", "instrumented", "cached", "no-bulk-writes",
+            "no-paged-reads", "no-async-daos", "no-token-range-scans", "no-multi-gets", "codecs-no-multi-gets",
+            "minimal"};
+
+    // the test run after the variants, deleting the schema files under a SchemaWatcher
+    private static final String REMOVAL = "removal";
+
+    // how long the watcher may take to pick up a deleted schema file
+    private static final long WATCH_TIMEOUT_MILLIS = 60000;
+
+    private static final String CLASSPATH = System.getProperty("generatedCodeCheck.classpath",
+            System.getProperty("java.class.path"));
+    private static final File OUTPUT = new File(System.getProperty("generatedCodeCheck.output",
+            new File(System.getProperty("java.io.tmpdir"), "generated-code-check").getPath()));
+
+    private final String variant;
+
+    public GeneratedCodeCheck(String variant) {
+        this.variant = variant;
+    }
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> variants() {
+        List<Object[]> variants = new ArrayList<Object[]>();
+        for (String variant : VARIANTS) {
+            variants.add(new Object[]{variant});
+        }
+        variants.add(new Object[]{REMOVAL});
+        return variants;
+    }
+
+    @BeforeClass
+    public static void checkClasspath() {
+        if (GeneratedCodeCheck.class.getClassLoader().getResource("templates/domain.template") == null) {
+            throw new IllegalStateException("templates/domain.template is not on the class path: add the root of"
+                    + " the repository, which holds the built-in templates");
+        }
+    }
+
+    @Test
+    public void check() throws Exception {
+        File directory = new File(OUTPUT, variant);
+        if (variant.equals(REMOVAL))
+            checkRemoval(directory);
+        else
+            generate(variant, directory);
+    }
+
+    private void generate(String variant, File directory) throws Exception {
+        delete(directory);
+        String outDirectory = directory.getPath();
+
+        SchemaFileGenerator schemaFileGenerator = new SchemaFileGenerator(outDirectory);
+        schemaFileGenerator.setKeyspace(FakeKeyspace.create("check", schemas()));
+        schemaFileGenerator.init();
+        try {
+            schemaFileGenerator.writeSchemaFiles(schemaFileGenerator.describeColumnFamilies());
+        } finally {
+            schemaFileGenerator.shutdown();
+        }
+
+        JPACodeGenerator codeGenerator = new JPACodeGenerator(PACKAGE, outDirectory);
+        configure(codeGenerator, variant);
+        codeGenerator.setVerifyCompilation(true);
+        codeGenerator.setVerifyClasspath(CLASSPATH);
+
+        CassandraDataTypeMapper mapper = new CassandraDataTypeMapper();
+        mapper.setCodeGenerator(codeGenerator);
+        mapper.generate(schemaDirectory(outDirectory));
+
+        if (variant.equals("minimal"))
+            checkInterfaces(directory);
+    }
+
+    /**
+     * With every feature off the DAO and service interfaces are those the generator wrote before
+     * the features existed, to the byte.
+     */
+    private static void checkInterfaces(File directory) throws IOException {
+        String main = directory.getPath() + File.separator + "main" + File.separator;
+        String dao = "package " + PACKAGE + ".dao;\n\n\nimport " + PACKAGE + ".domain." + CACHED_CLASS + ";\n\n\n"
+                + "public interface I" + CACHED_CLASS + "Dao extends IAbstractDao<" + CACHED_CLASS + ", String> {\n}\n\n\n";
+        String service = "package " + PACKAGE + ".service;\n\nimport org.springframework.stereotype.Service;\n\n"
+                + "import " + PACKAGE + ".domain." + CACHED_CLASS + ";\n\n@Service\npublic interface I" + CACHED_CLASS
+                + "Service extends IAbstractService<" + CACHED_CLASS + ", String> {\n\n}\n";
+        checkContent(new File(main + "dao" + File.separator + "I" + CACHED_CLASS + "Dao.java"), dao);
+        checkContent(new File(main + "service" + File.separator + "I" + CACHED_CLASS + "Service.java"), service);
+    }
+
+    private static void checkContent(File file, String expected) throws IOException {
+        String content = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+        if (!content.equals(expected))
+            throw new IllegalStateException(file + " differs from the output without features:\n" + content);
+    }
+
+    /**
+     * Runs a SchemaWatcher on the schema files and deletes them one at a time; each time the sources
+     * of the deleted column family must disappear and those of the others stay.
+     */
+    private void checkRemoval(File directory) throws Exception {
+        delete(directory);
+        String outDirectory = directory.getPath();
+        SchemaFileGenerator schemaFileGenerator = new SchemaFileGenerator(outDirectory);
+        schemaFileGenerator.writeSchemaFiles(schemas());
+        final File schemaDir = schemaDirectory(outDirectory);
+
+        CassandraDataTypeMapper mapper = new CassandraDataTypeMapper();
+        mapper.setCodeGenerator(new JPACodeGenerator(PACKAGE, outDirectory));
+        final SchemaWatcher watcher = new SchemaWatcher(schemaFileGenerator, mapper);
+        watcher.setPollIntervalMillis(50);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    watcher.watchDirectory(schemaDir);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "schema-watcher");
+        thread.setDaemon(true);
+        thread.start();
+
+        try {
+            File[] schemaFiles = schemaDir.listFiles();
+            Arrays.sort(schemaFiles);
+            List<String> remaining = new ArrayList<String>();
+            for (File schemaFile : schemaFiles) {
+                remaining.add(className(schemaFile));
+            }
+            await(directory, remaining, null);
+
+            for (File schemaFile : schemaFiles) {
+                String removed = className(schemaFile);
+                remaining.remove(removed);
+                if (!schemaFile.delete())
+                    throw new IllegalStateException("failed to delete " + schemaFile);
+                await(directory, remaining, removed);
+            }
+        } finally {
+            watcher.stop();
+            thread.join(WATCH_TIMEOUT_MILLIS);
+        }
+    }
+
+    /**
+     * Waits until every class in present has sources and removed, unless null, has none.
+     */
+    private static void await(File directory, List<String> present, String removed) throws Exception {
+        long deadline = System.currentTimeMillis() + WATCH_TIMEOUT_MILLIS;
+        while (true) {
+            boolean done = removed == null || count(directory, removed) == 0;
+            for (String className : present) {
+                done &= count(directory, className) > 0;
+            }
+            if (done)
+                return;
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException(removed == null ? "no sources generated for " + present
+                        : count(directory, removed) + " sources of " + removed + " left after deleting its schema file");
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private static String className(File schemaFile) {
+        String name = schemaFile.getName();
+        return CassandraDataTypeMapper.toClassName(name.endsWith(".db") ? name.substring(0, name.length() - 3) : name);
+    }
+
+    // sources named after the class: the entity, its DAO, service, tests and so on
+    private static int count(File file, String className) {
+        File[] children = file.listFiles();
+        if (children == null) {
+            String name = file.getName();
+            return name.endsWith(".java") && name.startsWith(className)
+                    && (name.charAt(className.length()) == '.' || Character.isUpperCase(name.charAt(className.length()))) ? 1 : 0;
+        }
+        int count = 0;
+        for (File child : children) {
+            count += count(child, className);
+        }
+        return count;
+    }
+
+    private static File schemaDirectory(String outDirectory) {
+        return new File(outDirectory + File.separator + "main" + File.separator + "resources" + File.separator + "schema");
+    }
+
+    private static void configure(JPACodeGenerator codeGenerator, String variant) {
+        boolean featureOff = variant.startsWith("no-");
+        if (variant.startsWith("codecs") || featureOff)
+            codeGenerator.setUseEntityCodecs(true);
+        if (variant.equals("instrumented") || featureOff)
+            codeGenerator.setInstrumentDaos(true);
+        if (variant.equals("cached") || featureOff) {
+            codeGenerator.getEntityCacheSizes().put(CACHED_CLASS, 1000);
+            codeGenerator.getEntityCacheTtlSeconds().put(CACHED_CLASS, 60L);
+        }
+        boolean minimal = variant.equals("minimal");
+        if (variant.equals("no-bulk-writes") || minimal)
+            codeGenerator.setBulkWrites(false);
+        if (variant.equals("no-paged-reads") || minimal)
+            codeGenerator.setPagedReads(false);
+        if (variant.equals("no-async-daos") || minimal)
+            codeGenerator.setAsyncDaos(false);
+        if (variant.equals("no-token-range-scans") || minimal)
+            codeGenerator.setTokenRangeScans(false);
+        if (variant.endsWith("no-multi-gets") || minimal)
+            codeGenerator.setMultiGets(false);
+    }
+
+    /**
+     * A column family with a column of every type, one with a list, a set and a map of every type,
+     * one with counters (which cannot share a column family with other columns) and one with
+     * validation classes that have the same CQL type as others.
+     */
+    static List<ColumnFamilySchema> schemas() {
+        ColumnFamilySchema everyType = schema("every_type");
+        ColumnFamilySchema collections = schema("collection_columns");
+        for (String[] type : TYPES) {
+            everyType.addColumn(type[0] + "_value", MARSHAL + type[1]);
+            collections.addColumn(type[0] + "_list", MARSHAL + "ListType(" + MARSHAL + type[1] + ")");
+            collections.addColumn(type[0] + "_set", MARSHAL + "SetType(" + MARSHAL + type[1] + ")");
+            collections.addColumn(type[0] + "_map", MARSHAL + "MapType(" + MARSHAL + "UTF8Type," + MARSHAL + type[1] + ")");
+        }
+
+        ColumnFamilySchema counters = schema("counters");
+        counters.addColumn("hits", MARSHAL + "CounterColumnType");
+        counters.addColumn("misses", MARSHAL + "CounterColumnType");
+
+        ColumnFamilySchema aliases = schema("aliases");
+        aliases.addColumn("created", MARSHAL + "TimestampType");
+        aliases.addColumn("score", MARSHAL + "ReversedType(" + MARSHAL + "DoubleType)");
+        aliases.addColumn("updated-at", MARSHAL + "ReversedType(" + MARSHAL + "DateType)");
+
+        return Arrays.asList(everyType, collections, counters, aliases);
+    }
+
+    private static ColumnFamilySchema schema(String name) {
+        ColumnFamilySchema schema = new ColumnFamilySchema(name);
+        schema.setKeyValidationClass(MARSHAL + "UTF8Type");
+        schema.setCaching("KEYS_ONLY");
+        schema.setComment("");
+        schema.setGcGraceSeconds(864000);
+        schema.setCompactionStrategy("org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy");
+        schema.getCompressionOptions().put("sstable_compression", "org.apache.cassandra.io.compress.LZ4Compressor");
+        return schema;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}